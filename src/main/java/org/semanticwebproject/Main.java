@@ -2,35 +2,62 @@ package org.semanticwebproject;
 
 import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.model.Calendar;
-import net.fortuna.ical4j.model.Property;
-import net.fortuna.ical4j.model.component.CalendarComponent;
+import org.apache.http.Header;
 import org.apache.http.client.methods.*;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
+import org.apache.jena.atlas.json.JsonArray;
 import org.apache.jena.atlas.json.JsonObject;
 import org.apache.jena.atlas.json.JsonValue;
 import org.apache.jena.atlas.json.io.JSONMaker;
 import org.apache.jena.atlas.json.io.parser.JSONParser;
+import org.apache.jena.query.Query;
 import org.apache.jena.rdf.model.*;
 import org.apache.jena.rdfconnection.RDFConnection;
 import org.apache.jena.rdfconnection.RDFConnectionFactory;
+import org.apache.jena.util.ResourceUtils;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.datatypes.xsd.*;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import org.semanticwebproject.lib.AlentoorCrawler;
+import org.semanticwebproject.lib.AttendeeBatch;
+import org.semanticwebproject.lib.CalendarDownload;
+import org.semanticwebproject.lib.DateTimeConverter;
+import org.semanticwebproject.lib.EventIntervalIndex;
+import org.semanticwebproject.lib.FusekiBulkLoader;
+import org.semanticwebproject.lib.FuzzyEventLinker;
+import org.semanticwebproject.lib.HttpClientPool;
+import org.semanticwebproject.lib.IcsEvent;
+import org.semanticwebproject.lib.IngestManifest;
+import org.semanticwebproject.lib.LdpPatch;
+import org.semanticwebproject.lib.LdpReplicator;
+import org.semanticwebproject.lib.LdpStatusException;
+import org.semanticwebproject.lib.LocalStore;
+import org.semanticwebproject.lib.LocationResolver;
+import org.semanticwebproject.lib.QueryResultCache;
+import org.semanticwebproject.lib.ResourceMutator;
+import org.semanticwebproject.lib.ResultPage;
+import org.semanticwebproject.lib.SparqlQueries;
+import org.semanticwebproject.lib.SparqlResultStream;
+import org.semanticwebproject.lib.UploadOutbox;
+import org.semanticwebproject.lib.UploadPipeline;
+import org.semanticwebproject.lib.VEventLexer;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static spark.Spark.*;
@@ -47,6 +74,14 @@ public class Main {
     public static final String EXAMPLE_PREFIX = "http://example.org/";
     public static final String EMSE_TERRITOIRE_PREFIX = "https://territoire.emse.fr/kg/emse/fayol/";
 
+    //matches the export timestamp CPS2 appends to every event description, eg (Exporté le:13/01/2023 18:06)
+    private static final Pattern EXPORT_NOTE_PATTERN = Pattern.compile("\\(Export\\S* le:[^)]*\\)");
+    //@id of an alentoor event once rewritten to the ldp container, see alentoorEventJsonLD
+    private static final Pattern ALENTOOR_EVENT_ID_PATTERN = Pattern.compile("\"@id\":\"" + Pattern.quote(TERRITOIRE_CONTAINER_SERVICE_URL) + "([^/\"]+-agenda-[0-9]+)/\"");
+
+    private static LdpReplicator ldpReplicator;
+    private static ResourceMutator resourceMutator;
+
     public static void main(String[] args) throws Exception {
 
         /**
@@ -74,6 +109,15 @@ public class Main {
 
         before((request, response) -> response.header("Access-Control-Allow-Origin", "*"));
 
+        //invalid request parameters (eg an iri or date rejected when binding a query) are the client's error
+        exception(IllegalArgumentException.class, (exception, request, response) -> {
+            response.status(400);
+            response.body(exception.getMessage());
+        });
+
+        //finish the uploads an interrupted run left unacknowledged before taking new requests
+        replayOutbox();
+
         /**
          * API ENDPOINTS START
          * (Re-)Download, process and upload CPS2 ICS file found at $calendar_url to Territoire LDP
@@ -81,12 +125,12 @@ public class Main {
          * request method: POST
          * request body: $calendar_url
          * content type: text
+         * query params (optional): destination=remote|fuseki, load=gsp|update (see loadCalendarIntoStore)
          *
          * $calendar_url = https://planning.univ-st-etienne.fr/jsp/custom/modules/plannings/anonymous_cal.jsp?resources=4222&projectId=1&calType=ical&firstDate=2022-08-22&lastDate=2023-08-20
          * */
         post("/download", (req, res) -> {
-            downloadICS(req.body());
-            boolean isValidShapeAndUploaded = readFile();
+            boolean isValidShapeAndUploaded = downloadAndReadFile(req.body(), destinationParam(req.queryParams("destination")), loadModeParam(req.queryParams("load")));
             if (isValidShapeAndUploaded) {
                 return "success";
             } else {
@@ -100,11 +144,12 @@ public class Main {
          * to Territoire LDP
          *
          * request method: GET
+         * query params (optional): destination=remote|fuseki, load=gsp|update (see loadCalendarIntoStore)
          *
          * $calendar_url = https://planning.univ-st-etienne.fr/jsp/custom/modules/plannings/anonymous_cal.jsp?resources=4222&projectId=1&calType=ical&firstDate=2022-08-22&lastDate=2023-08-20
          * */
         get("/read", (req, res) -> {
-            boolean isValidShapeAndUploaded = readFile();
+            boolean isValidShapeAndUploaded = readFile(destinationParam(req.queryParams("destination")), loadModeParam(req.queryParams("load")));
             if (isValidShapeAndUploaded) {
                 return "success";
             } else {
@@ -123,8 +168,7 @@ public class Main {
          * $city_name = eg saint-etienne | lyon | paris...
          * */
         post("/extract", (req, res) -> {
-            String url = "https://www.alentoor.fr/" + req.body() + "/agenda";
-            boolean isValidShape = fetchRDFFromUrl(url, req.body());
+            boolean isValidShape = fetchRDFFromUrl(req.body());
             if (isValidShape) {
                 return "success";
             } else {
@@ -133,6 +177,30 @@ public class Main {
             }
         });
 
+        /**
+         * Extract, process and upload events of several alentoor.fr cities at once, the cities being fetched concurrently
+         *
+         * request method: POST
+         * request body: {"cities": ["saint-etienne", "lyon", ...]}
+         * content type: JSON
+         *
+         * response: the time spent on each city and the number of its events uploaded, invalid or failed, as JSON
+         * */
+        post("/crawl", (req, res) -> {
+            JSONMaker jm = new JSONMaker();
+            JSONParser.parseAny(new StringReader(req.body()), jm);
+            JsonObject obj = jm.jsonValue().getAsObject();
+            if (!obj.hasKey("cities") || !obj.get("cities").isArray()) {
+                throw new IllegalArgumentException("Expected {\"cities\": [..]}");
+            }
+            List<String> cities = new ArrayList<String>();
+            for (JsonValue city : obj.get("cities").getAsArray()) {
+                cities.add(city.getAsString().value());
+            }
+            res.type("application/json");
+            return crawlCities(cities).toString();
+        });
+
         /**
          * Get events happening on a specific date e.g. 09-12-2022
          *
@@ -143,12 +211,22 @@ public class Main {
          * year = eg 2022
          * month = eg 06 (ie june)
          * day = eg 09
+         *
+         * or events overlapping any range: request body: from, to
+         * from = eg 2022-12-09T00:00:00Z (inclusive)
+         * to = eg 2022-12-16T00:00:00Z (exclusive)
+         *
+         * request body (optional): offset, limit, to page through the events (by start), eg offset 0 and limit 50, then offset 50...
          * */
         post("/get-events", (req, res) -> {
             JSONMaker jm = new JSONMaker();
             JSONParser.parseAny(new StringReader(req.body()), jm);
             JsonObject obj = jm.jsonValue().getAsObject();
-            return (upcomingEventsByDate(obj.getString("year"), obj.getString("month"), obj.getString("day")));
+            ResultPage page = ResultPage.of(jsonParam(obj, "offset"), jsonParam(obj, "limit"));
+            if (obj.hasKey("from")) {
+                return (eventsOverlapping(obj.getString("from"), obj.getString("to"), page));
+            }
+            return (upcomingEventsByDate(obj.getString("year"), obj.getString("month"), obj.getString("day"), page));
         });
 
         /**
@@ -170,13 +248,41 @@ public class Main {
             return "success";
         });
 
+        /**
+         * Add attendees to events in bulk, all the attendees of an event with a single write
+         *
+         * request method: POST
+         * request body, either
+         * NDJSON: one {"eventURI": .., "attendeeURI": ..} object per line (content type application/x-ndjson)
+         * or a matrix: {"eventURIs": [..], "attendeeURIs": [..]} (every attendee is added to every event, content type application/json)
+         *
+         * response: counts per status (added, duplicate, invalid, failed) and the result of each pair, as JSON
+         * */
+        post("/add-attendees", (req, res) -> {
+            AttendeeBatch batch = AttendeeBatch.read(new InputStreamReader(req.raw().getInputStream(), StandardCharsets.UTF_8), req.contentType());
+            addAttendeesToEvents(batch);
+            res.type("application/json");
+            return batch.getSummary().toString();
+        });
+
         /**
          * Get non-course events
          *
          * request method: GET
+         * query params (optional): offset, limit, to page through the events (by iri)
          * */
         get("/get-non-course-events", (req, res) -> {
-            return (nonCourseEvents());
+            return (nonCourseEvents(ResultPage.of(req.queryParams("offset"), req.queryParams("limit"))));
+        });
+
+        /**
+         * Hit, miss, eviction and invalidation counts of the query result cache behind /get-events and /get-non-course-events
+         *
+         * request method: GET
+         * */
+        get("/cache-stats", (req, res) -> {
+            res.type("application/json");
+            return QueryResultCache.get().getStats();
         });
 
 
@@ -204,6 +310,38 @@ public class Main {
             }
         });
 
+        /**
+         * Discover and Link all Same Events of the ldp
+         * (every group of events with the same location, start and end dates and times)
+         *
+         * request method: POST
+         * */
+        post("/link-all-same-events", (req, res) -> {
+            List<List<String>> groups = linkAllSameEvents();
+            if (!groups.isEmpty()) {
+                return groups;
+            } else {
+                return "No events found";
+            }
+        });
+
+        /**
+         * Discover and Link Similar Events of the ldp
+         * (events at the same location, starting within an hour of each other, with similar titles and descriptions)
+         *
+         * request method: POST
+         * query params (optional): threshold, the similarity from which events are linked, between 0 and 1 (default 0.5)
+         * */
+        post("/link-similar-events", (req, res) -> {
+            String threshold = req.queryParams("threshold");
+            List<List<String>> pairs = linkSimilarEvents(threshold == null || threshold.isBlank() ? FUZZY_LINK_THRESHOLD : Double.parseDouble(threshold));
+            if (!pairs.isEmpty()) {
+                return pairs;
+            } else {
+                return "No events found";
+            }
+        });
+
         /**
          * API ENDPOINTS END
          */
@@ -218,15 +356,19 @@ public class Main {
         if (action.equals(DOWNLOAD_ICS_COMMAND) || action.equals(READ_COMMAND)) {
             if (action.equals(DOWNLOAD_ICS_COMMAND)) {
                 String url = getUrl();
-                downloadICS(url);
+                downloadAndReadFile(url);
+            } else {
+                readFile();
             }
-            readFile();
         }
 
         if (action.equals(EXTRACT_COMMAND)) {
             String alentoorCity = getCity();
-            String url = "https://www.alentoor.fr/" + alentoorCity + "/agenda";
-            fetchRDFFromUrl(url, alentoorCity);
+            fetchRDFFromUrl(alentoorCity);
+        }
+
+        if (action.equals(CRAWL_COMMAND)) {
+            System.out.println(crawlCities(getCities()));
         }
 
         if (action.equals(ADD_ATTENDEE_COMMAND)) {
@@ -235,6 +377,15 @@ public class Main {
             addAttendeeToEvent(attendeeDetails.get(0), attendeeDetails.get(1));
         }
 
+        if (action.equals(ADD_ATTENDEES_COMMAND)) {
+            String fileName = getAttendeesFile();
+            try (Reader reader = Files.newBufferedReader(Path.of(fileName), StandardCharsets.UTF_8)) {
+                AttendeeBatch batch = AttendeeBatch.read(reader);
+                addAttendeesToEvents(batch);
+                System.out.println(batch.getSummary());
+            }
+        }
+
         if (action.equals(GET_EVENTS_COMMAND)) {
             List<String> dateDetails = getEventDate();
 
@@ -259,6 +410,36 @@ public class Main {
             }
         }
 
+        if (action.equals(LINK_SIMILAR_COMMAND)) {
+            List<List<String>> pairs = linkSimilarEvents(FUZZY_LINK_THRESHOLD);
+            if (!pairs.isEmpty()) {
+                System.out.println("Linking completed");
+                System.out.println("_________________");
+                System.out.println("");
+                System.out.println("Linked Events::");
+                for (List<String> pair : pairs) {
+                    System.out.println(pair);
+                }
+            } else {
+                System.out.println("No events found");
+            }
+        }
+
+        if (action.equals(LINK_ALL_COMMAND)) {
+            List<List<String>> groups = linkAllSameEvents();
+            if (!groups.isEmpty()) {
+                System.out.println("Linking completed");
+                System.out.println("_________________");
+                System.out.println("");
+                System.out.println("Linked Events::");
+                for (List<String> group : groups) {
+                    System.out.println(group);
+                }
+            } else {
+                System.out.println("No events found");
+            }
+        }
+
         /**
          * CONSOLE BASED EXECUTION/GUI END
          * */
@@ -271,10 +452,117 @@ public class Main {
      * LOADS calendar.ics file for processing calendar data and uploading to LDP
      * */
     public static boolean readFile() throws Exception {
+        return readFile(LDP_DESTINATION, null);
+    }
+
+    /**
+     * LOADS calendar.ics file for processing calendar data and uploading to the given destination
+     * (LDP_DESTINATION, or FUSEKI_DESTINATION bulk loaded with loadMode)
+     * When the lexer stops on input it does not understand, the events before that point may already be uploaded;
+     * the whole file is then read again with ical4j, which does not upload them twice: on the ldp the events written
+     * are in the ingest manifest and skipped as unchanged (and the deletion of events missing from the calendar only
+     * runs after a complete read), on fuseki the graph is replaced by the second load
+     * */
+    public static boolean readFile(String destination, FusekiBulkLoader.Mode loadMode) throws Exception {
+        if (USE_STREAMING_ICS_LEXER) {
+            try (VEventLexer lexer = VEventLexer.open(CALENDAR_FILE_NAME)) {
+                return parseCalendarToRDF(lexer, destination, loadMode);
+            } catch (VEventLexer.MalformedCalendarException e) {
+                System.out.println(e.getMessage());
+                System.out.println("Falling back to ical4j to read " + CALENDAR_FILE_NAME);
+            }
+        }
+        return readFileWithIcal4j(destination, loadMode);
+    }
+
+    /**
+     * LOADS calendar.ics file with ical4j for processing calendar data and uploading to the given destination
+     * */
+    public static boolean readFileWithIcal4j(String destination, FusekiBulkLoader.Mode loadMode) throws Exception {
         FileInputStream fin = new FileInputStream(CALENDAR_FILE_NAME);
         CalendarBuilder builder = new CalendarBuilder();
         Calendar calendar = builder.build(fin);
-        return parseCalendarToRDF(calendar);
+        return parseCalendarToRDF(calendarEvents(calendar), destination, loadMode);
+    }
+
+    public static boolean downloadAndReadFile(String url) throws Exception {
+        return downloadAndReadFile(url, LDP_DESTINATION, null);
+    }
+
+    /**
+     * Downloads the calendar at url (see CalendarDownload) and processes it while it is being downloaded,
+     * skipping ingestion entirely when the calendar has not changed since the last successful ingest
+     * (falling back to ical4j as readFile does). The validators making the next download a 304 are only kept
+     * when every event was ingested, so failed or invalid events are tried again on the next download
+     * */
+    public static boolean downloadAndReadFile(String url, String destination, FusekiBulkLoader.Mode loadMode) throws Exception {
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            if (download.isNotModified()) {
+                System.out.println("Calendar not modified since its last successful ingest, nothing to ingest");
+                return true;
+            }
+            if (!USE_STREAMING_ICS_LEXER) {
+                download.commit();
+                return storeValidatorsIf(download, readFileWithIcal4j(destination, loadMode));
+            }
+
+            boolean isValidShape;
+            try (VEventLexer lexer = new VEventLexer(new InputStreamReader(download.body(), StandardCharsets.UTF_8))) {
+                isValidShape = parseCalendarToRDF(lexer, destination, loadMode);
+            } catch (VEventLexer.MalformedCalendarException e) {
+                System.out.println(e.getMessage());
+                System.out.println("Falling back to ical4j to read " + CALENDAR_FILE_NAME);
+                download.commit();
+                return storeValidatorsIf(download, readFileWithIcal4j(destination, loadMode));
+            }
+            download.commit();
+            storeValidatorsIf(download, isValidShape);
+
+            System.out.println("File downloaded to root of project folder");
+            System.out.println("File name: " + CALENDAR_FILE_NAME);
+            return isValidShape;
+        }
+    }
+
+    private static boolean storeValidatorsIf(CalendarDownload download, boolean isIngested) throws IOException {
+        if (isIngested) {
+            download.storeValidators();
+        }
+        return isIngested;
+    }
+
+    /**
+     * Destination of an ingest request, defaulting to the ldp
+     * */
+    public static String destinationParam(String destination) {
+        if (destination == null || destination.isBlank()) {
+            return LDP_DESTINATION;
+        }
+        if (!destination.equals(LDP_DESTINATION) && !destination.equals(FUSEKI_DESTINATION)) {
+            throw new IllegalArgumentException("Unknown destination: " + destination + " (expected " + LDP_DESTINATION + " or " + FUSEKI_DESTINATION + ")");
+        }
+        return destination;
+    }
+
+    /**
+     * A number or string member of a json request body as a string, null if it is missing
+     * */
+    public static String jsonParam(JsonObject obj, String key) {
+        if (!obj.hasKey(key) || obj.get(key).isNull()) {
+            return null;
+        }
+        JsonValue value = obj.get(key);
+        return value.isNumber() ? value.getAsNumber().value().toString() : value.getAsString().value();
+    }
+
+    /**
+     * Bulk load mode of an ingest request to fuseki (gsp or update), null for the default
+     * */
+    public static FusekiBulkLoader.Mode loadModeParam(String loadMode) {
+        if (loadMode == null || loadMode.isBlank()) {
+            return null;
+        }
+        return FusekiBulkLoader.Mode.valueOf(loadMode.toUpperCase(Locale.ROOT));
     }
 
     /**
@@ -294,11 +582,11 @@ public class Main {
         System.out.println("To continue on  the console, follow the instruction below.");
         System.out.println("__________________________________________________________");
         System.out.println();
-        System.out.println("Please enter a run command: download | read  | extract | get_events | add_attendee | get_non_course_events | link_same_events:");
+        System.out.println("Please enter a run command: download | read  | extract | crawl | get_events | add_attendee | add_attendees | get_non_course_events | link_same_events | link_all_same_events | link_similar_events:");
         String command = reader.readLine().toUpperCase();
 
-        while (!command.equals(DOWNLOAD_ICS_COMMAND) && !command.equals(READ_COMMAND) && !command.equals(ADD_ATTENDEE_COMMAND) && !command.equals(GET_EVENTS_COMMAND) && !command.equals(EXTRACT_COMMAND) && !command.equals(GET_NON_COURSE_EVENTS_COMMAND) && !command.equals(LINK_COMMAND)) {
-            System.out.println("Command must be either of DOWNLOAD | READ | EXTRACT | GET_EVENTS| ADD_ATTENDEE | GET_NON_COURSE_EVENTS | LINK_SAME_EVENTS");
+        while (!command.equals(DOWNLOAD_ICS_COMMAND) && !command.equals(READ_COMMAND) && !command.equals(ADD_ATTENDEE_COMMAND) && !command.equals(ADD_ATTENDEES_COMMAND) && !command.equals(GET_EVENTS_COMMAND) && !command.equals(EXTRACT_COMMAND) && !command.equals(CRAWL_COMMAND) && !command.equals(GET_NON_COURSE_EVENTS_COMMAND) && !command.equals(LINK_COMMAND) && !command.equals(LINK_ALL_COMMAND) && !command.equals(LINK_SIMILAR_COMMAND)) {
+            System.out.println("Command must be either of DOWNLOAD | READ | EXTRACT | CRAWL | GET_EVENTS| ADD_ATTENDEE | ADD_ATTENDEES | GET_NON_COURSE_EVENTS | LINK_SAME_EVENTS | LINK_ALL_SAME_EVENTS | LINK_SIMILAR_EVENTS");
             command = reader.readLine().toUpperCase();
         }
 
@@ -401,6 +689,26 @@ public class Main {
         return attendeeDetails;
     }
 
+    /**
+     * Used for taking the attendees file input (NDJSON or matrix, see /add-attendees) from user during console based execution
+     * */
+    public static String getAttendeesFile() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(System.in));
+
+        // Reading data using readLine
+        System.out.println("Please enter the path to a file of attendees: eg attendees.ndjson");
+        System.out.println("one {\"eventURI\": .., \"attendeeURI\": ..} per line, or {\"eventURIs\": [..], \"attendeeURIs\": [..]}");
+        String fileName = reader.readLine();
+
+        while (fileName.isEmpty() || !Files.exists(Path.of(fileName))) {
+            System.out.println("file not found");
+            fileName = reader.readLine();
+        }
+
+        return fileName;
+    }
+
     /**
      * Used for taking input on url of calendar to download from user during console based execution
      * */
@@ -422,6 +730,31 @@ public class Main {
         return url;
     }
 
+    /**
+     * Used for taking the alentoor city names of a crawl from user during console based execution
+     * */
+    public static List<String> getCities() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(System.in));
+
+        // Reading data using readLine
+        System.out.println("Please enter alentoor city names separated by commas, eg saint-etienne, lyon, paris :");
+
+        List<String> cities = new ArrayList<String>();
+        while (cities.isEmpty()) {
+            for (String city : reader.readLine().split(",")) {
+                if (!city.isBlank()) {
+                    cities.add(city.trim());
+                }
+            }
+            if (cities.isEmpty()) {
+                System.out.println("Please enter at least one city");
+            }
+        }
+
+        return cities;
+    }
+
     /**
      * Used for taking alentoor city name input for webpage extraction from user during console based execution
      * */
@@ -445,16 +778,41 @@ public class Main {
     /**
      * Takes a Calendar object which is generated after parsing ICS file as input
      * Tries to create a container on the LDP (this will have no effect if a container already exists)
-     * Iterates through the calendar list generated, creates a resource from each event and writes each resource to a temp file
-     * Attempts to validate the file contents against a shacl shape and upload to ldp
+     * Converts the calendar events in batches across a fork-join pool, creating an in-memory model from each event,
+     * then validates each model against the shacl shapes and hands it to the upload pipeline before converting the next batch.
+     * The pipeline keeps a bounded number of ldp requests in flight and retries server errors and timeouts,
+     * so conversion only runs ahead of the uploads by that many events and nothing is written to disk.
+     * Events are tracked by UID in the ingest manifest: unchanged events are skipped, changed events are PUT to the
+     * resource they were first posted to, and events that disappeared from the calendar are deleted from the ldp.
+     * A failed event does not stop the others; every event that was not uploaded is listed in the report at the end
      * */
     public static Boolean parseCalendarToRDF(Calendar calendar) throws Exception {
-        List<CalendarComponent> calendarList = calendar.getComponentList().getAll();
+        return parseCalendarToRDF(calendarEvents(calendar));
+    }
 
-        List<String> eventFileName = new ArrayList<String>();
+    public static Iterator<IcsEvent> calendarEvents(Calendar calendar) {
+        return calendar.getComponentList().getAll().stream()
+                .filter(component -> component.getName().equals(VEVENT))
+                .map(IcsEvent::fromComponent)
+                .iterator();
+    }
 
-        Integer eventCount = 1;
+    /**
+     * Sends the calendar events to the ldp (see parseCalendarToRDF(Iterator)) or, for FUSEKI_DESTINATION,
+     * bulk loads them into the local fuseki (see loadCalendarIntoStore)
+     * */
+    public static Boolean parseCalendarToRDF(Iterator<IcsEvent> calendarEvents, String destination, FusekiBulkLoader.Mode loadMode) throws Exception {
+        if (FUSEKI_DESTINATION.equals(destination)) {
+            return loadCalendarIntoStore(calendarEvents, LOCAL_FUSEKI_SERVICE_URL, FUSEKI_CALENDAR_GRAPH, loadMode != null ? loadMode : FusekiBulkLoader.Mode.GSP);
+        }
+        return parseCalendarToRDF(calendarEvents);
+    }
 
+    /**
+     * Same as parseCalendarToRDF(Calendar), reading the events one batch at a time from the iterator,
+     * eg straight from the VEventLexer
+     * */
+    public static Boolean parseCalendarToRDF(Iterator<IcsEvent> calendarEvents) throws Exception {
         Model model = ModelFactory.createDefaultModel();
         Resource eventsInfo = model.createResource("https://mines-saint-etienne.cps2.com/mycalendar");
         String eventName = CONTAINER_NAME_URL;
@@ -464,127 +822,338 @@ public class Main {
 
         model.createStatement(eventInfo, RDF.type, eventsInfo);
 
+        boolean isValidShape = uploadModel(LDP_DESTINATION, model, true, "container", false);
 
-        String tempFileName = CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "_container.ttl";
-        eventFileName.add(tempFileName);
-
-        FileWriter writer = new FileWriter(tempFileName);
-        BufferedWriter bufferedWriter = new BufferedWriter(writer);
-
-        model.write(bufferedWriter, "Turtle");
-        bufferedWriter.close();
-        boolean isValidShape = uploadTurtleFile(LDP_DESTINATION, true, 0, false);
+        IngestManifest manifest = IngestManifest.load(INGEST_MANIFEST_FILE_NAME);
+        //events are keyed on their UID, suffixed with the occurrence for UIDs repeated within the calendar
+        Map<String, Integer> uidOccurrences = new HashMap<String, Integer>();
+        Set<String> seenEventKeys = new HashSet<String>();
+        int unchangedCount = 0;
+        int batchNumber = 0;
 
+        ForkJoinPool conversionPool = new ForkJoinPool(CONVERSION_PARALLELISM);
+        UploadPipeline uploadPipeline = new UploadPipeline();
+        try {
+            //convert a batch at a time across the pool, then queue the batch for upload in calendar order
+            while (calendarEvents.hasNext()) {
+                List<IcsEvent> batch = new ArrayList<IcsEvent>(CONVERSION_BATCH_SIZE);
+                while (calendarEvents.hasNext() && batch.size() < CONVERSION_BATCH_SIZE) {
+                    batch.add(calendarEvents.next());
+                }
 
-        for (CalendarComponent calendarEvent : calendarList) {
-            model = ModelFactory.createDefaultModel();
+                //skip events whose content has not changed since they were last uploaded
+                List<IcsEvent> changedEvents = new ArrayList<IcsEvent>();
+                List<String> eventKeys = new ArrayList<String>();
+                List<String> resourceNames = new ArrayList<String>();
+                List<String> contentHashes = new ArrayList<String>();
+                for (IcsEvent calendarEvent : batch) {
+                    String contentHash = eventContentHash(calendarEvent);
+                    String eventKey = eventKey(calendarEvent, contentHash, uidOccurrences);
+                    seenEventKeys.add(eventKey);
+
+                    IngestManifest.Entry entry = manifest.get(eventKey);
+                    //with the local store on, an event uploaded before the store existed is still written to it
+                    if (entry != null && entry.contentHash.equals(contentHash)
+                            && (!USE_LOCAL_STORE || LocalStore.get().contains(entry.resourceIRI))) {
+                        unchangedCount++;
+                        continue;
+                    }
+                    changedEvents.add(calendarEvent);
+                    eventKeys.add(eventKey);
+                    resourceNames.add(eventResourceName(calendarEvent, eventKey));
+                    contentHashes.add(contentHash);
+                }
 
-            //PROPERTIES
-            final org.apache.jena.rdf.model.Property A_THING = model.createProperty("a");
-            final org.apache.jena.rdf.model.Property DATE_TIME = model.createProperty(SCHEMA_ORG_PREFIX + "DateTime");
-            final org.apache.jena.rdf.model.Property DATE_START = model.createProperty(SCHEMA_ORG_PREFIX + "startDate");
-            final org.apache.jena.rdf.model.Property DATE_END = model.createProperty(SCHEMA_ORG_PREFIX + "endDate");
-            final org.apache.jena.rdf.model.Property DATE_CREATED = model.createProperty(SCHEMA_ORG_PREFIX + "dateCreated");
-            final org.apache.jena.rdf.model.Property DATE_MODIFIED = model.createProperty(SCHEMA_ORG_PREFIX + "dateModified");
-            final org.apache.jena.rdf.model.Property SUMMARY = model.createProperty(EXAMPLE_PREFIX + "summary");
-            final org.apache.jena.rdf.model.Property LOCATION = model.createProperty(SCHEMA_ORG_PREFIX + "location");
-            final org.apache.jena.rdf.model.Property DESCRIPTION = model.createProperty(SCHEMA_ORG_PREFIX + "description");
-            final org.apache.jena.rdf.model.Property IDENTIFIER = model.createProperty(SCHEMA_ORG_PREFIX + "identifier");
-            final org.apache.jena.rdf.model.Property SEQUENCE = model.createProperty(EXAMPLE_PREFIX + "sequence");
+                List<Model> eventModels = convertEvents(changedEvents, resourceNames, conversionPool);
 
-            eventName = calendarEvent.getName();
-            List<Property> eventDetails = calendarEvent.getProperties();
+                //validate the whole batch in one pass, then accept or reject each event on its own results
+                Model batchModel = ModelFactory.createDefaultModel();
+                for (Model eventModel : eventModels) {
+                    batchModel.add(eventModel);
+                }
+                batchNumber++;
+                Map<String, List<Resource>> violations = eventModels.isEmpty()
+                        ? Collections.emptyMap()
+                        : validateEventsWithSHACL(batchModel, "calendar-batch-" + batchNumber, true);
+
+                for (int i = 0; i < eventModels.size(); i++) {
+                    IcsEvent calendarEvent = changedEvents.get(i);
+                    Model eventModel = eventModels.get(i);
+                    String eventKey = eventKeys.get(i);
+                    String resourceName = resourceNames.get(i);
+                    String contentHash = contentHashes.get(i);
+                    IngestManifest.Entry entry = manifest.get(eventKey);
+
+                    if (violations.containsKey(resourceName)) {
+                        System.out.println("Resource: " + resourceName);
+                        System.out.println("Invalid events shape. See log file: calendar-batch-" + batchNumber + ".ttl in shacl-validation-reports folder for details");
+                        uploadPipeline.record(new UploadPipeline.Outcome(eventKey, UploadPipeline.Status.INVALID, null, 0, "see calendar-batch-" + batchNumber + ".ttl"));
+                        continue;
+                    }
 
-            //loop through event details and form RDF
+                    //only called once the ldp answered the PUT with a 2xx (see checkServerStatus)
+                    Consumer<UploadPipeline.Outcome> recordInManifest = outcome -> {
+                        manifest.put(new IngestManifest.Entry(eventKey,
+                                calendarEvent.getValue(_SEQUENCE), calendarEvent.getValue(_LAST_MODIFIED), contentHash, outcome.resourceIRI));
+                        indexEvent(outcome.resourceIRI, eventModel);
+                    };
+                    //new events are given their iri in the container (from the resource name) and created there with a PUT,
+                    //so replaying a create from the outbox after a crash cannot duplicate the event
+                    String resourceIRI = entry != null ? entry.resourceIRI : TERRITOIRE_CONTAINER_SERVICE_URL + resourceName + "/";
+                    UploadPipeline.Status status = entry == null ? UploadPipeline.Status.CREATED : UploadPipeline.Status.UPDATED;
+                    ResourceUtils.renameResource(eventModel.getResource(resourceName), resourceIRI);
+                    if (USE_LOCAL_STORE) {
+                        writeResource(resourceIRI, eventModel);
+                        UploadPipeline.Outcome outcome = new UploadPipeline.Outcome(eventKey, status, resourceIRI, 1, null);
+                        recordInManifest.accept(outcome);
+                        uploadPipeline.record(outcome);
+                    } else {
+                        UploadOutbox.Mutation mutation = UploadOutbox.get().append(UploadOutbox.PUT, resourceIRI, eventKey, modelToTurtle(eventModel));
+                        submitMutation(uploadPipeline, mutation, status, recordInManifest);
+                    }
+                }
+                manifest.save();
+            }
 
-            eventInfo = model.createResource(eventName.substring(0, 1).toLowerCase() + eventName.substring(1) + "-" + eventCount.toString());
+            //events no longer in the calendar are removed from the ldp, but only after a complete read
+            //(the lexer reached END:VCALENDAR; ical4j throws on a truncated calendar) and when few of them would go,
+            //so one bad poll of the calendar feed cannot wipe the timetable
+            boolean isCompleteRead = !(calendarEvents instanceof VEventLexer) || ((VEventLexer) calendarEvents).isComplete();
+            Set<String> trackedEventKeys = manifest.uids();
+            List<String> unlistedEventKeys = new ArrayList<String>();
+            for (String eventKey : trackedEventKeys) {
+                if (!seenEventKeys.contains(eventKey)) {
+                    unlistedEventKeys.add(eventKey);
+                }
+            }
+            String skipReason = !isCompleteRead ? "the calendar was not read to its end"
+                    : seenEventKeys.isEmpty() ? "the calendar has no events"
+                    : unlistedEventKeys.size() > PRUNE_MAX_FRACTION * trackedEventKeys.size() ? "that is more than " + PRUNE_MAX_FRACTION + " of the " + trackedEventKeys.size() + " events uploaded"
+                    : null;
+            if (skipReason != null && !unlistedEventKeys.isEmpty()) {
+                System.out.println("Not removing the " + unlistedEventKeys.size() + " events missing from the calendar: " + skipReason);
+                unlistedEventKeys.clear();
+            }
+            for (String eventKey : unlistedEventKeys) {
+                String resourceIRI = manifest.get(eventKey).resourceIRI;
+                if (USE_LOCAL_STORE) {
+                    removeResource(resourceIRI);
+                    manifest.remove(eventKey);
+                    unindexEvent(resourceIRI);
+                    uploadPipeline.record(new UploadPipeline.Outcome(eventKey, UploadPipeline.Status.DELETED, resourceIRI, 1, null));
+                    continue;
+                }
+                UploadOutbox.Mutation mutation = UploadOutbox.get().append(UploadOutbox.DELETE, resourceIRI, eventKey, null);
+                submitMutation(uploadPipeline, mutation, UploadPipeline.Status.DELETED, outcome -> {
+                    manifest.remove(eventKey);
+                    unindexEvent(resourceIRI);
+                });
+            }
+            uploadPipeline.awaitAll();
+        } finally {
+            conversionPool.shutdown();
+            uploadPipeline.close();
+            manifest.save();
+            UploadOutbox.get().compact();
+            EventIntervalIndex.get().save();
+        }
 
+        List<UploadPipeline.Outcome> report = uploadPipeline.getReport();
+        Map<UploadPipeline.Status, Long> statusCounts = report.stream()
+                .collect(Collectors.groupingBy(outcome -> outcome.status, () -> new EnumMap<>(UploadPipeline.Status.class), Collectors.counting()));
+        for (UploadPipeline.Outcome outcome : report) {
+            if (outcome.status == UploadPipeline.Status.FAILED || outcome.status == UploadPipeline.Status.INVALID) {
+                System.out.println(outcome);
+                isValidShape = false;
+            }
+        }
 
-            eventInfo.addProperty(RDF.type, model.createResource(SCHEMA_ORG_PREFIX + "Event"));
-            eventInfo.addProperty(RDF.type, model.createResource(SCHEMA_ORG_PREFIX + "Course"));
+        System.out.println("Created: " + statusCounts.getOrDefault(UploadPipeline.Status.CREATED, 0L)
+                + ", updated: " + statusCounts.getOrDefault(UploadPipeline.Status.UPDATED, 0L)
+                + ", unchanged: " + unchangedCount
+                + ", deleted: " + statusCounts.getOrDefault(UploadPipeline.Status.DELETED, 0L)
+                + ", invalid: " + statusCounts.getOrDefault(UploadPipeline.Status.INVALID, 0L)
+                + ", failed: " + statusCounts.getOrDefault(UploadPipeline.Status.FAILED, 0L)
+                + ", retries: " + uploadPipeline.getRetryCount());
+        LocationResolver locationResolver = LocationResolver.forPrefix(EMSE_TERRITOIRE_PREFIX);
+        System.out.println("Location cache hits: " + locationResolver.getHitCount() + ", misses: " + locationResolver.getMissCount() + ", rooms: " + locationResolver.getCacheSize());
+        System.out.println("HTTP connection pool: " + HttpClientPool.getStats());
+        if (USE_LOCAL_STORE) {
+            System.out.println("Written to local store, changes waiting for the ldp: " + ldpReplicator().getPendingCount());
+        }
+        System.out.println("Generated output has been uploaded to defined DB: Fuseki or LDP");
+        System.out.println("::::::::::::::::::::");
+        return isValidShape;
+    }
 
-            for (Property eventDetail : eventDetails) {
-                String detailName = eventDetail.getName();
+    /**
+     * Replaces the content of graphIRI in the sparql store at serviceUrl with the whole calendar in one bulk load:
+     * events are converted and validated a batch at a time as for the ldp, and every valid event is streamed into
+     * a single graph store request (GSP) or into INSERT DATA requests of FUSEKI_INSERT_BATCH_SIZE triples (UPDATE).
+     * Events get the iri they would have in the ldp container, as a store needs absolute iris
+     * */
+    public static Boolean loadCalendarIntoStore(Iterator<IcsEvent> calendarEvents, String serviceUrl, String graphIRI, FusekiBulkLoader.Mode loadMode) throws Exception {
+        boolean isValidShape = true;
+        Map<String, Integer> uidOccurrences = new HashMap<String, Integer>();
+        int eventCount = 0;
+        int batchNumber = 0;
+        long startTime = System.currentTimeMillis();
+
+        ForkJoinPool conversionPool = new ForkJoinPool(CONVERSION_PARALLELISM);
+        try (FusekiBulkLoader loader = FusekiBulkLoader.open(serviceUrl, graphIRI, loadMode, true)) {
+            while (calendarEvents.hasNext()) {
+                List<IcsEvent> batch = new ArrayList<IcsEvent>(CONVERSION_BATCH_SIZE);
+                List<String> resourceIRIs = new ArrayList<String>(CONVERSION_BATCH_SIZE);
+                while (calendarEvents.hasNext() && batch.size() < CONVERSION_BATCH_SIZE) {
+                    IcsEvent calendarEvent = calendarEvents.next();
+                    String eventKey = eventKey(calendarEvent, eventContentHash(calendarEvent), uidOccurrences);
+                    batch.add(calendarEvent);
+                    resourceIRIs.add(TERRITOIRE_CONTAINER_SERVICE_URL + eventResourceName(calendarEvent, eventKey) + "/");
+                }
 
+                List<Model> eventModels = convertEvents(batch, resourceIRIs, conversionPool);
+                Model batchModel = ModelFactory.createDefaultModel();
+                for (Model eventModel : eventModels) {
+                    batchModel.add(eventModel);
+                }
+                batchNumber++;
+                Map<String, List<Resource>> violations = validateEventsWithSHACL(batchModel, "calendar-batch-" + batchNumber, true);
+                if (violations.isEmpty()) {
+                    loader.add(batchModel);
+                    eventCount += eventModels.size();
+                    continue;
+                }
 
-                switch (detailName) {
-                    case _DTSTAMP ->
-                            eventInfo.addProperty(DATE_TIME, model.createTypedLiteral(createDateTimeObject(eventDetail.getValue())));
-                    case _DTSTART ->
-                            eventInfo.addProperty(DATE_START, model.createTypedLiteral(createDateTimeObject(eventDetail.getValue())));
-                    case _DTEND ->
-                            eventInfo.addProperty(DATE_END, model.createTypedLiteral(createDateTimeObject(eventDetail.getValue())));
-                    case _SUMMARY -> eventInfo.addProperty(SUMMARY, model.createTypedLiteral(eventDetail.getValue()));
-                    case _LOCATION -> {
-                        eventInfo.addProperty(LOCATION, model.createResource(convertLocationToTerritoireIRI(eventDetail.getValue(), EMSE_TERRITOIRE_PREFIX)));
+                System.out.println("Invalid events shape: " + violations.keySet());
+                System.out.println("See log file: calendar-batch-" + batchNumber + ".ttl in shacl-validation-reports folder for details");
+                isValidShape = false;
+                Model validModel = ModelFactory.createDefaultModel();
+                for (int i = 0; i < eventModels.size(); i++) {
+                    if (!violations.containsKey(resourceIRIs.get(i))) {
+                        validModel.add(eventModels.get(i));
+                        eventCount++;
                     }
-                    case _DESCRIPTION ->
-                            eventInfo.addProperty(DESCRIPTION, model.createTypedLiteral(eventDetail.getValue()));
-                    case _UID -> eventInfo.addProperty(IDENTIFIER, model.createTypedLiteral(eventDetail.getValue()));
-                    case _CREATED ->
-                            eventInfo.addProperty(DATE_CREATED, model.createTypedLiteral(createDateTimeObject(eventDetail.getValue())));
-                    case _LAST_MODIFIED ->
-                            eventInfo.addProperty(DATE_MODIFIED, model.createTypedLiteral(createDateTimeObject(eventDetail.getValue())));
-                    case _SEQUENCE ->
-                            eventInfo.addProperty(SEQUENCE, model.createTypedLiteral(Integer.parseInt(eventDetail.getValue())));
                 }
+                loader.add(validModel);
             }
-
-            model.createStatement(eventInfo, RDF.type, eventsInfo);
-
-            tempFileName = CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + eventCount.toString() + ".ttl";
-
-            eventCount++;
-
-            writer = new FileWriter(tempFileName);
-            bufferedWriter = new BufferedWriter(writer);
-
-            model.write(bufferedWriter, "Turtle");
-            bufferedWriter.close();
+            long tripleCount = loader.finish();
+            System.out.println("Loaded " + eventCount + " events (" + tripleCount + " triples) into <" + graphIRI + "> with " + loadMode
+                    + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        } finally {
+            conversionPool.shutdown();
         }
+        return isValidShape;
+    }
 
+    /**
+     * Converts calendar events to event models with the given resource names on the given pool,
+     * returning the models in the order of the events
+     * */
+    public static List<Model> convertEvents(List<IcsEvent> calendarEvents, List<String> resourceNames, ForkJoinPool pool) throws Exception {
+        return pool.submit(() -> IntStream.range(0, calendarEvents.size()).parallel()
+                .mapToObj(i -> createEventModel(calendarEvents.get(i), resourceNames.get(i)))
+                .collect(Collectors.toList())).get();
+    }
 
-        int cc = 1;
-        while (cc < eventCount) {
-            isValidShape = uploadTurtleFile(LDP_DESTINATION, false, cc, true);
-            cc++;
+    /**
+     * Identifies an event across ingests by its UID (or a hash of its content when it has none).
+     * Some exports repeat a UID for distinct events, so repeats get their occurrence in the calendar appended (eg $uid-2)
+     * */
+    public static String eventKey(IcsEvent calendarEvent, String contentHash, Map<String, Integer> uidOccurrences) {
+        String uid = calendarEvent.getValue(_UID);
+        String key = uid != null ? uid : contentHash.substring(0, 16);
+        int occurrence = uidOccurrences.merge(key, 1, Integer::sum);
+        return occurrence == 1 ? key : key + "-" + occurrence;
+    }
 
+    /**
+     * Hashes the content of an event, leaving out the export timestamps (DTSTAMP, LAST-MODIFIED and the
+     * "Exporté le" note in the description) which change on every calendar export even when the event does not
+     * */
+    public static String eventContentHash(IcsEvent calendarEvent) {
+        StringBuilder content = new StringBuilder();
+        for (IcsEvent.IcsProperty eventDetail : calendarEvent.getProperties()) {
+            String detailName = eventDetail.name;
+            if (detailName.equals(_DTSTAMP) || detailName.equals(_LAST_MODIFIED)) {
+                continue;
+            }
+            String detailValue = eventDetail.value;
+            if (detailName.equals(_DESCRIPTION)) {
+                detailValue = EXPORT_NOTE_PATTERN.matcher(detailValue).replaceAll("");
+            }
+            content.append(detailName).append(':').append(detailValue).append('\n');
         }
+        return sha256Hex(content.toString());
+    }
 
-        System.out.println("Generated output has been uploaded to defined DB: Fuseki or LDP");
-        System.out.println("::::::::::::::::::::");
-        return isValidShape;
+    /**
+     * Derives the resource name of an event from its event key (eg vEVENT-ade6032...), so the name does not depend on
+     * the position of the event in the calendar or on the order in which events are converted
+     * */
+    public static String eventResourceName(IcsEvent calendarEvent, String eventKey) {
+        String eventName = calendarEvent.getName();
+        String prefix = eventName.substring(0, 1).toLowerCase() + eventName.substring(1) + "-";
+        return prefix + eventKey.toLowerCase().replaceAll("[^a-z0-9_.-]", "-");
     }
 
     /**
-     * parses temp files containing json ld data into jena models, creates resources and writes them to temp files
-     * then attempts to validate the file contents against shacl a shape and upload to ldp
+     * Creates a jena model holding a single calendar event resource with the given resource name
      * */
-    public static boolean parseJSONLDToRDF(Integer numberOfFiles) throws Exception {
-        int count = 1;
-        boolean isValidShape = false;
-        while (count < numberOfFiles) {
-            //read json ld file
-            Model model = ModelFactory.createDefaultModel();
-            model.read(FETCHED_JSON_LD_TEMP_NAME + "-" + count + ".jsonld");
+    public static Model createEventModel(IcsEvent calendarEvent, String resourceName) {
+        Model model = ModelFactory.createDefaultModel();
+        Resource eventsInfo = model.createResource("https://mines-saint-etienne.cps2.com/mycalendar");
 
-            //write data to turtle file
-            writeModelToFIle(CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + count + ".ttl", model);
+        //PROPERTIES
+        final org.apache.jena.rdf.model.Property DATE_TIME = model.createProperty(SCHEMA_ORG_PREFIX + "DateTime");
+        final org.apache.jena.rdf.model.Property DATE_START = model.createProperty(SCHEMA_ORG_PREFIX + "startDate");
+        final org.apache.jena.rdf.model.Property DATE_END = model.createProperty(SCHEMA_ORG_PREFIX + "endDate");
+        final org.apache.jena.rdf.model.Property DATE_CREATED = model.createProperty(SCHEMA_ORG_PREFIX + "dateCreated");
+        final org.apache.jena.rdf.model.Property DATE_MODIFIED = model.createProperty(SCHEMA_ORG_PREFIX + "dateModified");
+        final org.apache.jena.rdf.model.Property SUMMARY = model.createProperty(EXAMPLE_PREFIX + "summary");
+        final org.apache.jena.rdf.model.Property LOCATION = model.createProperty(SCHEMA_ORG_PREFIX + "location");
+        final org.apache.jena.rdf.model.Property DESCRIPTION = model.createProperty(SCHEMA_ORG_PREFIX + "description");
+        final org.apache.jena.rdf.model.Property IDENTIFIER = model.createProperty(SCHEMA_ORG_PREFIX + "identifier");
+        final org.apache.jena.rdf.model.Property SEQUENCE = model.createProperty(EXAMPLE_PREFIX + "sequence");
 
-            //DELETE TEMP FILE HERE
-            try {
-                Files.deleteIfExists(Paths.get(FETCHED_JSON_LD_TEMP_NAME + "-" + count + ".jsonld"));
-            } catch (Exception ex) {
-//                System.out.println("file probably still in use");
-            }
+        List<IcsEvent.IcsProperty> eventDetails = calendarEvent.getProperties();
+
+        //loop through event details and form RDF
+
+        Resource eventInfo = model.createResource(resourceName);
+
+
+        eventInfo.addProperty(RDF.type, model.createResource(SCHEMA_ORG_PREFIX + "Event"));
+        eventInfo.addProperty(RDF.type, model.createResource(SCHEMA_ORG_PREFIX + "Course"));
 
-            //upload to ldp
-            isValidShape = uploadTurtleFile(LDP_DESTINATION, false, count, false);
-            count++;
+        for (IcsEvent.IcsProperty eventDetail : eventDetails) {
+            String detailName = eventDetail.name;
+
+
+            switch (detailName) {
+                case _DTSTAMP ->
+                        eventInfo.addProperty(DATE_TIME, model.createTypedLiteral(createDateTimeObject(eventDetail)));
+                case _DTSTART ->
+                        eventInfo.addProperty(DATE_START, model.createTypedLiteral(createDateTimeObject(eventDetail)));
+                case _DTEND ->
+                        eventInfo.addProperty(DATE_END, model.createTypedLiteral(createDateTimeObject(eventDetail)));
+                case _SUMMARY -> eventInfo.addProperty(SUMMARY, model.createTypedLiteral(eventDetail.value));
+                case _LOCATION -> {
+                    eventInfo.addProperty(LOCATION, model.createResource(convertLocationToTerritoireIRI(eventDetail.value, EMSE_TERRITOIRE_PREFIX)));
+                }
+                case _DESCRIPTION ->
+                        eventInfo.addProperty(DESCRIPTION, model.createTypedLiteral(eventDetail.value));
+                case _UID -> eventInfo.addProperty(IDENTIFIER, model.createTypedLiteral(eventDetail.value));
+                case _CREATED ->
+                        eventInfo.addProperty(DATE_CREATED, model.createTypedLiteral(createDateTimeObject(eventDetail)));
+                case _LAST_MODIFIED ->
+                        eventInfo.addProperty(DATE_MODIFIED, model.createTypedLiteral(createDateTimeObject(eventDetail)));
+                case _SEQUENCE ->
+                        eventInfo.addProperty(SEQUENCE, model.createTypedLiteral(Integer.parseInt(eventDetail.value)));
+            }
         }
-        System.out.println("Generated output has been uploaded to defined DB: Fuseki or LDP");
-        System.out.println("::::::::::::::::::::");
-        return isValidShape;
+
+        model.createStatement(eventInfo, RDF.type, eventsInfo);
+        return model;
     }
 
     public static void mergeFiles(List<String> fileNames, String outputFileName) throws IOException {
@@ -611,211 +1180,389 @@ public class Main {
     }
 
     /**
-     * uploads a resource to ldp, either a container or a container child on successful validation against shacl shape
+     * reads a turtle temp file into memory, removes the file and uploads its content to ldp
      * */
     public static boolean uploadTurtleFile(String destination, Boolean isContainer, Integer count, Boolean isCPS2Event) throws Exception {
+        String fileName = isContainer ? CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "_container.ttl" : CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + count.toString() + ".ttl";
+
+        Model model = ModelFactory.createDefaultModel();
+        model.read(fileName);
+
+        //DELETE TEMP FILE HERE
+        try {
+            Files.deleteIfExists(Paths.get(fileName));
+        } catch (Exception ex) {
+//            System.out.println("file probably still in use");
+        }
+
+        return uploadModel(destination, model, isContainer, fileName, isCPS2Event);
+    }
+
+    /**
+     * uploads an in-memory model to ldp, either a container or a container child on successful validation against shacl shape
+     * label identifies the resource in console output and validation report file names
+     * */
+    public static boolean uploadModel(String destination, Model model, Boolean isContainer, String label, Boolean isCPS2Event) throws Exception {
         boolean isValidShape = false;
 
         //USED FOR FUSEKI TESTS
         if (destination.equals(FUSEKI_DESTINATION)) {
             try (RDFConnection conn = RDFConnectionFactory.connect(LOCAL_FUSEKI_SERVICE_URL)) {
-                conn.put(CALENDAR_OUTPUT_TURTLE_FILE_NAME);
+                conn.load(model);
             }
         } else {
             //upload to territoire
-            try {
-
-                HttpPost post = new HttpPost(isContainer ? TERRITOIRE_SERVICE_URL : TERRITOIRE_CONTAINER_SERVICE_URL);
-                post.addHeader("Authorization", AUTH_TOKEN);
-                post.addHeader("Accept", "text/turtle");
-                post.addHeader("Content-Type", "text/turtle");
-                post.addHeader("Link", "<http://www.w3.org/ns/ldp#BasicContainer>; rel=\"type\"");
-                post.addHeader("Prefer", "http://www.w3.org/ns/ldp#Container; rel=interaction-model");
-//            post.addHeader("Slug", CONTAINER_NAME);
-                post.addHeader("Slug", "testtest2");
-
-                String requestBody;
-                String fileName = "";
-                if (isContainer) {
-                    requestBody = Files.readString(Path.of(CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "_container.ttl"), StandardCharsets.UTF_8);
-                    fileName = CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "_container.ttl";
-
+            isValidShape = validateEvent(model, label, isCPS2Event);
+            String resourceIRI = isContainer ? null : containerResourceIRI(model);
+            if (USE_LOCAL_STORE && isValidShape && resourceIRI != null) {
+                writeResource(resourceIRI, model);
+                indexEvent(resourceIRI, model);
+            } else if (isValidShape && !isContainer) {
+                //journaled so an interrupted run resends it; events with an iri in the container are PUT, which is safe to resend
+                UploadOutbox.Mutation mutation = resourceIRI != null
+                        ? UploadOutbox.get().append(UploadOutbox.PUT, resourceIRI, label, modelToTurtle(model))
+                        : UploadOutbox.get().append(UploadOutbox.POST, TERRITOIRE_CONTAINER_SERVICE_URL, label, modelToTurtle(model));
+                String sentIRI = sendAndAck(mutation);
+                if (sentIRI != null) {
+                    indexEvent(sentIRI, model);
                 } else {
-                    //container child
-                    requestBody = Files.readString(Path.of(CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + count.toString() + ".ttl"), StandardCharsets.UTF_8);
-                    fileName = CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + count.toString() + ".ttl";
-
-                }
-                //validate shape
-                isValidShape = validateWithSHACL(fileName, false);
-                if (!isValidShape) {
-                    System.out.println("File: " + CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + count.toString() + ".ttl");
-                    System.out.println("Invalid events shape. See log file: in shacl-validation-reports folder for details");
-                }
-
-                if (isCPS2Event) {
-                    isValidShape = validateWithSHACL(fileName, true);
-                    if (!isValidShape) {
-                        System.out.println("File: " + CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + count.toString() + ".ttl");
-                        System.out.println("Invalid events shape. See log file: in shacl-validation-reports folder for details");
-                    }
-                }
-
-                System.out.println(requestBody);
-                if (isValidShape) {
-                    StringEntity requestBodyEntity = new StringEntity(requestBody);
-                    post.setEntity(requestBodyEntity);
+                    System.out.println("The ldp created " + label + " without a Location header, its iri is unknown");
                 }
-
-                CloseableHttpClient httpClient = HttpClients.createDefault();
-                CloseableHttpResponse response = httpClient.execute(post);
-
-                //DELETE TEMP FILE HERE
-                try {
-                    Files.deleteIfExists(Paths.get(isContainer ? CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "_container.ttl" : CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME + "-" + count.toString() + ".ttl"));
-                } catch (Exception ex) {
-//                    System.out.println("file probably still in use");
-                }
-                System.out.println(EntityUtils.toString(response.getEntity()));
-                return isValidShape;
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
-                throw new Exception(e);
+            } else {
+                postModel(isValidShape ? model : null, isContainer);
             }
         }
         return isValidShape;
     }
 
-    public static void deleteRemoteResource(String url) throws Exception {
-        try {
-            HttpDelete delete = new HttpDelete(url);
-            delete.addHeader("Authorization", AUTH_TOKEN);
-            System.out.println("Event at: " + url + " was deleted");
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-            httpClient.execute(delete);
+    /**
+     * Adds an uploaded event to the EventIntervalIndex under resourceIRI, taking its schema:startDate / schema:endDate
+     * from the resource of that iri in the model, or from the (first) resource of the model that has them,
+     * and drops the cached query results the event can change
+     * */
+    public static void indexEvent(String resourceIRI, Model model) {
+        long[] previousInterval = EventIntervalIndex.get().getInterval(resourceIRI);
+        putEventInterval(resourceIRI, model);
+        QueryResultCache.get().invalidateEvent(previousInterval, EventIntervalIndex.get().getInterval(resourceIRI));
+    }
 
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            throw new Exception(e);
+    /**
+     * Removes a deleted event from the EventIntervalIndex and drops the cached query results it was part of
+     * */
+    public static void unindexEvent(String resourceIRI) {
+        long[] previousInterval = EventIntervalIndex.get().getInterval(resourceIRI);
+        EventIntervalIndex.get().remove(resourceIRI);
+        QueryResultCache.get().invalidateEvent(previousInterval, null);
+        QueryResultCache.get().invalidateResource(resourceIRI);
+    }
+
+    private static void putEventInterval(String resourceIRI, Model model) {
+        org.apache.jena.rdf.model.Property startDate = model.createProperty(SCHEMA_ORG_PREFIX + "startDate");
+        org.apache.jena.rdf.model.Property endDate = model.createProperty(SCHEMA_ORG_PREFIX + "endDate");
+        Resource event = model.getResource(resourceIRI);
+        if (!event.hasProperty(startDate)) {
+            ResIterator events = model.listResourcesWithProperty(startDate);
+            try {
+                if (!events.hasNext()) {
+                    return;
+                }
+                event = events.next();
+            } finally {
+                events.close();
+            }
+        }
+        Statement start = event.getProperty(startDate);
+        Statement end = event.getProperty(endDate);
+        if (start != null && start.getObject().isLiteral()) {
+            String startValue = start.getLiteral().getLexicalForm();
+            String endValue = end != null && end.getObject().isLiteral() ? end.getLiteral().getLexicalForm() : startValue;
+            EventIntervalIndex.get().put(resourceIRI, startValue, endValue);
         }
     }
 
     /**
-     * Converts datetime string to XSDDateTimeObject
+     * the iri of the (first) resource of the model that lives in the ldp container, or null if there is none
      * */
-    public static XSDDateTime createDateTimeObject(String dateTimeString) throws ParseException {
-        String year = dateTimeString.substring(0, 4);
-        String month = dateTimeString.substring(4, 6);
-        String day = dateTimeString.substring(6, 8);
-        String hour = dateTimeString.substring(9, 11);
-        Integer hourInt = Integer.parseInt(hour) + 1;
-        hour = hourInt.toString();
-        String minute = dateTimeString.substring(11, 13);
-        String second = dateTimeString.substring(13, 15);
+    public static String containerResourceIRI(Model model) {
+        ResIterator subjects = model.listSubjects();
+        try {
+            while (subjects.hasNext()) {
+                Resource subject = subjects.next();
+                if (subject.isURIResource() && subject.getURI().startsWith(TERRITOIRE_CONTAINER_SERVICE_URL)) {
+                    return subject.getURI();
+                }
+            }
+            return null;
+        } finally {
+            subjects.close();
+        }
+    }
 
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("dd-MM-yyyy;HH:mm:ss");
+    /**
+     * Writes a resource to the local store and queues it for replication to the ldp
+     * */
+    public static void writeResource(String resourceIRI, Model model) {
+        LocalStore.get().put(resourceIRI, model);
+        ldpReplicator().enqueuePut(resourceIRI, model);
+    }
 
-        Date date = simpleDateFormat.parse(day + "-" + month + "-" + year + ";" + hour + ":" + minute + ":" + second);
-        java.util.Calendar calendar = java.util.Calendar.getInstance();
-        calendar.setTime(date);
-        return new XSDDateTime(calendar);
+    /**
+     * Removes a resource from the local store and queues its deletion from the ldp
+     * */
+    public static void removeResource(String resourceIRI) {
+        LocalStore.get().delete(resourceIRI);
+        ldpReplicator().enqueueDelete(resourceIRI);
     }
 
     /**
-     * Retrieves and attendee resource from ldp, creates an attendee iri from input string and adds to the event resource
-     * Then saves the updated content in the ldp
+     * The mutation layer all updates of existing resources go through (attendees, owl:sameAs links)
      * */
-    public static void addAttendeeToEvent(String attendeeURI, String eventUrl) throws Exception {
-        //fetch event
-        HttpGet get = new HttpGet(eventUrl);
-        get.addHeader("Authorization", AUTH_TOKEN);
+    public static synchronized ResourceMutator resourceMutator() {
+        if (resourceMutator == null) {
+            resourceMutator = new ResourceMutator(Main::insertTriples);
+        }
+        return resourceMutator;
+    }
 
-        CloseableHttpResponse response;
-        String eTagHeader;
-        try {
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-            response = httpClient.execute(get);
+    /**
+     * Adds triples to a resource: in the local store (replicated to the ldp in the background) when it holds the resource,
+     * otherwise on the ldp with a PATCH
+     * */
+    public static void insertTriples(String resourceIRI, Model additions) throws Exception {
+        if (USE_LOCAL_STORE && LocalStore.get().contains(resourceIRI)) {
+            Model model = LocalStore.get().update(resourceIRI, resource -> resource.add(additions));
+            ldpReplicator().enqueuePut(resourceIRI, model);
+        } else {
+            LdpPatch.insert(resourceIRI, additions);
+        }
+        QueryResultCache.get().invalidateResource(resourceIRI);
+    }
 
-            eTagHeader = response.getFirstHeader("ETag").getValue();
+    public static synchronized LdpReplicator ldpReplicator() {
+        if (ldpReplicator == null) {
+            ldpReplicator = new LdpReplicator(Main::sendMutation, UploadOutbox.get());
+        }
+        return ldpReplicator;
+    }
 
+    /**
+     * Sends a journaled mutation to the ldp, returning the iri of the resource it wrote.
+     * A PUT creates the resource if it does not exist yet. A POST the ldp answers without a Location returns null:
+     * the resource was created, but its iri is unknown (see UploadPipeline.Status.UNLOCATED)
+     * */
+    public static String sendMutation(UploadOutbox.Mutation mutation) throws Exception {
+        switch (mutation.method) {
+            case UploadOutbox.POST:
+                return postModel(turtleToModel(mutation.body), false);
+            case UploadOutbox.PUT:
+                updateRemoteResource(mutation.url, turtleToModel(mutation.body));
+                return mutation.url;
+            case UploadOutbox.DELETE:
+                deleteRemoteResource(mutation.url);
+                return mutation.url;
+            default:
+                throw new IllegalArgumentException("Unknown outbox mutation: " + mutation.method);
+        }
+    }
+
+    /**
+     * Sends a journaled mutation to the ldp and acknowledges it in the outbox once the ldp confirmed it (2xx),
+     * including a POST answered without a Location: the ldp did create the resource, resending it would duplicate it.
+     * A mutation the ldp refused (4xx) is marked rejected in the outbox, other failures leave it pending
+     * */
+    public static String sendAndAck(UploadOutbox.Mutation mutation) throws Exception {
+        String resourceIRI;
+        try {
+            resourceIRI = sendMutation(mutation);
         } catch (Exception e) {
-            System.out.println(e.getMessage());
-            throw new Exception(e);
+            if (UploadPipeline.isRejected(e)) {
+                UploadOutbox.get().reject(mutation, e.getMessage());
+            }
+            throw e;
         }
+        UploadOutbox.get().ack(mutation);
+        return resourceIRI;
+    }
 
-        String data = EntityUtils.toString(response.getEntity());
+    /**
+     * Sends a journaled mutation through the upload pipeline (see sendAndAck)
+     * */
+    public static void submitMutation(UploadPipeline uploadPipeline, UploadOutbox.Mutation mutation, UploadPipeline.Status status,
+                                      Consumer<UploadPipeline.Outcome> onSuccess) throws InterruptedException {
+        uploadPipeline.submit(mutation.key, status, () -> sendAndAck(mutation), onSuccess);
+    }
 
-        // write results to file
-        String tempFileName = FETCHED_RESOURCE_TEMP_NAME; //REFACTOR TO include random numbers
+    /**
+     * Resends the mutations a previous run journaled in the outbox but never got confirmed, eg because the process died
+     * midway through an upload. Only the latest pending PUT / DELETE of each resource is sent.
+     * Mutations the ldp refused are reported and not sent again
+     * */
+    public static void replayOutbox() throws Exception {
+        for (UploadOutbox.Mutation mutation : UploadOutbox.get().rejected()) {
+            System.out.println("Upload refused by the ldp, not resent: " + mutation.method + " " + mutation.url
+                    + " (" + mutation.key + "): " + UploadOutbox.get().getRejectionReason(mutation));
+        }
+        List<UploadOutbox.Mutation> pendingMutations = UploadOutbox.get().pending();
+        if (pendingMutations.isEmpty()) {
+            return;
+        }
+        System.out.println("Replaying " + pendingMutations.size() + " unacknowledged uploads from " + OUTBOX_FILE_NAME);
 
-        FileWriter writer = new FileWriter(tempFileName);
-        BufferedWriter bufferedWriter = new BufferedWriter(writer);
+        if (USE_LOCAL_STORE) {
+            for (UploadOutbox.Mutation mutation : pendingMutations) {
+                if (!mutation.method.equals(UploadOutbox.POST)) {
+                    ldpReplicator().enqueue(mutation);
+                }
+            }
+        }
 
-        bufferedWriter.write(data);
-        bufferedWriter.close();
+        Map<String, UploadOutbox.Mutation> latestMutations = new LinkedHashMap<String, UploadOutbox.Mutation>();
+        for (UploadOutbox.Mutation mutation : pendingMutations) {
+            if (mutation.method.equals(UploadOutbox.POST)) {
+                latestMutations.put(mutation.method + mutation.id, mutation);
+            } else if (!USE_LOCAL_STORE) {
+                latestMutations.remove(mutation.url);
+                latestMutations.put(mutation.url, mutation);
+            }
+        }
 
-        //read file into jena and update or delete and repost
-        Model model = ModelFactory.createDefaultModel();
-        model.read(FETCHED_RESOURCE_TEMP_NAME);
-
-        final org.apache.jena.rdf.model.Property ATTENDEE = model.createProperty(SCHEMA_ORG_PREFIX + "attendee");
-        model.getResource(eventUrl).addProperty(ATTENDEE, model.createResource(attendeeURI));
-
-        // list the statements in the Model
-//        StmtIterator iter = model.listStatements();
-//
-//        while (iter.hasNext()) {
-//            Statement stmt      = iter.nextStatement();  // get next statement
-//            Resource  subject   = stmt.getSubject();     // get the subject
-//            org.apache.jena.rdf.model.Property predicate = stmt.getPredicate();   // get the predicate
-//            RDFNode   object    = stmt.getObject();      // get the object
-//
-//            System.out.print(subject.toString());
-//            System.out.print(" " + predicate.toString() + " ");
-//            if (object instanceof Resource) {
-//                System.out.print(object.toString());
-//            } else {
-//                // object is a literal
-//                System.out.print(" \"" + object.toString() + "\"");
-//            }
-//
-//            System.out.println(" .");
-//        }
-
-        //write to file
-        writer = new FileWriter(FETCHED_RESOURCE_TEMP_NAME);
-        bufferedWriter = new BufferedWriter(writer);
-
-        model.write(bufferedWriter, "Turtle");
-
-        //push file online
+        UploadPipeline uploadPipeline = new UploadPipeline();
+        try {
+            for (UploadOutbox.Mutation mutation : latestMutations.values()) {
+                UploadPipeline.Status status = mutation.method.equals(UploadOutbox.DELETE) ? UploadPipeline.Status.DELETED
+                        : mutation.method.equals(UploadOutbox.POST) ? UploadPipeline.Status.CREATED : UploadPipeline.Status.UPDATED;
+                submitMutation(uploadPipeline, mutation, status, null);
+            }
+            for (UploadPipeline.Outcome outcome : uploadPipeline.getReport()) {
+                if (outcome.status == UploadPipeline.Status.FAILED || outcome.status == UploadPipeline.Status.UNLOCATED) {
+                    System.out.println(outcome);
+                }
+            }
+        } finally {
+            uploadPipeline.close();
+        }
+        UploadOutbox.get().compact();
+        System.out.println("Uploads still unacknowledged: " + UploadOutbox.get().getPendingCount() + ", refused by the ldp: " + UploadOutbox.get().rejected().size());
+    }
+
+    /**
+     * validates a model against the generic shacl shape, or the generic and CPS2 course shapes together for CPS2 events
+     * */
+    public static boolean validateEvent(Model model, String label, Boolean isCPS2Event) {
+        boolean isValidShape = validateWithSHACL(model, label, isCPS2Event);
+        if (!isValidShape) {
+            System.out.println("Resource: " + label);
+            System.out.println("Invalid events shape. See log file: in shacl-validation-reports folder for details");
+        }
+        return isValidShape;
+    }
+
+    /**
+     * posts a model to the ldp (an empty body is posted when model is null)
+     * returns the iri of the created resource from the Location header, or null if the server did not send one
+     * */
+    public static String postModel(Model model, Boolean isContainer) throws Exception {
         try {
 
-            HttpPut put = new HttpPut(eventUrl);
-            put.addHeader("Authorization", AUTH_TOKEN);
-            put.addHeader("Accept", "text/turtle");
-            put.addHeader("Content-Type", "text/turtle");
-            put.addHeader("If-Match", eTagHeader);
-            put.addHeader("Prefer", "http://www.w3.org/ns/ldp#RDFSource; rel=interaction-model");
+            HttpPost post = new HttpPost(isContainer ? TERRITOIRE_SERVICE_URL : TERRITOIRE_CONTAINER_SERVICE_URL);
+            post.addHeader("Authorization", AUTH_TOKEN);
+            post.addHeader("Accept", "text/turtle");
+            post.addHeader("Content-Type", "text/turtle");
+            post.addHeader("Link", "<http://www.w3.org/ns/ldp#BasicContainer>; rel=\"type\"");
+            post.addHeader("Prefer", "http://www.w3.org/ns/ldp#Container; rel=interaction-model");
+//            post.addHeader("Slug", CONTAINER_NAME);
+            post.addHeader("Slug", "testtest2");
 
+            if (model != null) {
+                StringWriter stringWriter = new StringWriter();
+                model.write(stringWriter, "Turtle");
+                String requestBody = stringWriter.toString();
 
-            String requestBody = Files.readString(Path.of(FETCHED_RESOURCE_TEMP_NAME));
+                System.out.println(requestBody);
+                StringEntity requestBodyEntity = new StringEntity(requestBody, StandardCharsets.UTF_8);
+                post.setEntity(requestBodyEntity);
+            }
 
-            StringEntity requestBodyEntity = new StringEntity(requestBody);
-            put.setEntity(requestBodyEntity);
+            try (CloseableHttpResponse response = HttpClientPool.get().execute(post)) {
+                System.out.println(EntityUtils.toString(response.getEntity()));
+                checkServerStatus(response, post.getURI().toString());
+                Header location = response.getFirstHeader("Location");
+                return location == null ? null : location.getValue();
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            throw new Exception(e);
+        }
+    }
 
+    /**
+     * replaces the content of an existing ldp resource with the model, using the current ETag of the resource as precondition
+     * (the resource is created when it does not exist yet). On a 412 (the resource changed since its ETag was read)
+     * the ETag is read again and the PUT retried, up to LDP_PRECONDITION_MAX_ATTEMPTS times
+     * */
+    public static void updateRemoteResource(String url, Model model) throws Exception {
+        try {
+            StringWriter stringWriter = new StringWriter();
+            model.write(stringWriter, "Turtle");
+
+            for (int attempt = 1; ; attempt++) {
+                HttpHead head = new HttpHead(url);
+                head.addHeader("Authorization", AUTH_TOKEN);
+
+                String eTagHeader = null;
+                try (CloseableHttpResponse response = HttpClientPool.get().execute(head)) {
+                    if (response.getStatusLine().getStatusCode() != 404) {
+                        checkServerStatus(response, url);
+                        Header eTag = response.getFirstHeader("ETag");
+                        if (eTag == null) {
+                            throw new IOException("No ETag for " + url + ", refusing to replace it without If-Match");
+                        }
+                        eTagHeader = eTag.getValue();
+                    }
+                }
 
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-            response = httpClient.execute(put);
+                HttpPut put = new HttpPut(url);
+                put.addHeader("Authorization", AUTH_TOKEN);
+                put.addHeader("Accept", "text/turtle");
+                put.addHeader("Content-Type", "text/turtle");
+                if (eTagHeader != null) {
+                    put.addHeader("If-Match", eTagHeader);
+                }
+                put.addHeader("Prefer", "http://www.w3.org/ns/ldp#RDFSource; rel=interaction-model");
+                put.setEntity(new StringEntity(stringWriter.toString(), StandardCharsets.UTF_8));
+
+                try (CloseableHttpResponse response = HttpClientPool.get().execute(put)) {
+                    EntityUtils.consume(response.getEntity());
+                    if (response.getStatusLine().getStatusCode() == 412 && attempt < LDP_PRECONDITION_MAX_ATTEMPTS) {
+                        System.out.println("Event at: " + url + " changed since its ETag was read, retrying");
+                        continue;
+                    }
+                    checkServerStatus(response, url);
+                    System.out.println("Event at: " + url + " was updated");
+                    System.out.println(response.toString());
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            throw new Exception(e);
+        }
+    }
 
-            try {
-                Files.deleteIfExists(Paths.get(FETCHED_RESOURCE_TEMP_NAME));
-            } catch (Exception ex) {
-//                System.out.println("file probably still in use");
+    public static void deleteRemoteResource(String url) throws Exception {
+        try {
+            HttpDelete delete = new HttpDelete(url);
+            delete.addHeader("Authorization", AUTH_TOKEN);
+            try (CloseableHttpResponse response = HttpClientPool.get().execute(delete)) {
+                EntityUtils.consume(response.getEntity());
+                //already gone (e.g. a replayed delete) is what was asked for
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode != 404 && statusCode != 410) {
+                    checkServerStatus(response, url);
+                }
             }
+            System.out.println("Event at: " + url + " was deleted");
 
-            System.out.println(response.toString());
-            System.out.println("Attendee added to event:::::::::");
         } catch (Exception e) {
             System.out.println(e.getMessage());
             throw new Exception(e);
@@ -823,59 +1570,182 @@ public class Main {
     }
 
     /**
-     * Uses a sparql query to retrieve events by date, returns the iri (url) to the events found
+     * fails the request with an LdpStatusException on any status other than 2xx
+     * (the upload pipeline retries the server errors among them, see UploadPipeline.isRetryable)
      * */
-    public static String upcomingEventsByDate(String year, String month, String day) throws Exception {
+    public static void checkServerStatus(CloseableHttpResponse response, String url) throws LdpStatusException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode < 200 || statusCode >= 300) {
+            throw new LdpStatusException(url, statusCode, response.getStatusLine().getReasonPhrase());
+        }
+    }
 
+    /**
+     * Converts datetime string to XSDDateTimeObject
+     * */
+    public static XSDDateTime createDateTimeObject(String dateTimeString) {
+        return DateTimeConverter.toXSDDateTime(dateTimeString, null);
+    }
+
+    /**
+     * Converts a datetime property to XSDDateTimeObject, honouring its TZID parameter
+     * */
+    public static XSDDateTime createDateTimeObject(IcsEvent.IcsProperty dateTimeProperty) {
+        return DateTimeConverter.toXSDDateTime(dateTimeProperty.value, dateTimeProperty.getParameter("TZID"));
+    }
+
+    /**
+     * Creates an attendee iri from input string and adds it to the event resource
+     * (concurrent additions to the same event are merged into one write, see ResourceMutator)
+     * */
+    public static void addAttendeeToEvent(String attendeeURI, String eventUrl) throws Exception {
+        Model attendee = ModelFactory.createDefaultModel();
+        attendee.createResource(eventUrl).addProperty(attendee.createProperty(SCHEMA_ORG_PREFIX + "attendee"), attendee.createResource(attendeeURI));
         try {
+            resourceMutator().insert(eventUrl, attendee);
+            System.out.println("Attendee added to event:::::::::");
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            throw new Exception(e);
+        }
+    }
 
-            HttpPost post = new HttpPost(TERRITOIRE_SERVICE_URL);
-            post.addHeader("Authorization", AUTH_TOKEN);
-            post.addHeader("Content-Type", "application/sparql-query");
-
-
-            String requestBody = "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n" +
-                    "PREFIX ex: <http://example.org/>\n" +
-                    "PREFIX schema: <http://schema.org/>\n" +
-                    "\n" +
-                    "SELECT ?sub WHERE {\n" +
-                    "  ?sub ?pred ?obj;\n" +
-                    "  schema:startDate ?startDate;\n" +
-                    "  schema:endDate ?endDate.\n" +
-                    "  FILTER(xsd:dateTime(?startDate) >= \"" + year + "-" + month + "-" + day + "T00:00:00Z\"^^<http://www.w3.org/2001/XMLSchema#dateTime>)\n" +
-                    "  FILTER(xsd:dateTime(?endDate) <= \"" + year + "-" + month + "-" + day + "T23:59:59Z\"^^<http://www.w3.org/2001/XMLSchema#dateTime>)\n" +
-                    "}";
-            System.out.println("requestBody::::");
-            System.out.println(requestBody);
-            System.out.println();
+    /**
+     * Adds the attendees of a batch to their events: one write per event (through the ResourceMutator), events written
+     * concurrently through an upload pipeline, and the result of each event recorded for all its pairs
+     * */
+    public static void addAttendeesToEvents(AttendeeBatch batch) throws Exception {
+        try (UploadPipeline uploadPipeline = new UploadPipeline()) {
+            for (Map.Entry<String, Set<String>> event : batch.getAttendeesByEvent().entrySet()) {
+                String eventUrl = event.getKey();
+                Model attendees = ModelFactory.createDefaultModel();
+                Resource eventResource = attendees.createResource(eventUrl);
+                org.apache.jena.rdf.model.Property attendee = attendees.createProperty(SCHEMA_ORG_PREFIX + "attendee");
+                for (String attendeeURI : event.getValue()) {
+                    eventResource.addProperty(attendee, attendees.createResource(attendeeURI));
+                }
 
-            StringEntity requestBodyEntity = new StringEntity(requestBody);
-            post.setEntity(requestBodyEntity);
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-            CloseableHttpResponse response = httpClient.execute(post);
+                uploadPipeline.submitAndThen(eventUrl, UploadPipeline.Status.UPDATED, () -> {
+                    resourceMutator().insert(eventUrl, attendees);
+                    return eventUrl;
+                }, outcome -> batch.setEventResult(eventUrl, outcome.status == UploadPipeline.Status.FAILED ? outcome.error : null));
+            }
+            uploadPipeline.awaitAll();
+        }
+        System.out.println("Added attendees to " + batch.getAttendeesByEvent().size() + " events");
+    }
 
-            String data = EntityUtils.toString(response.getEntity());
+    /**
+     * Runs a SELECT query against the local store when USE_LOCAL_STORE is on, otherwise against the ldp sparql endpoint,
+     * returning the results in the sparql json results format
+     * */
+    public static String sparqlSelect(Query query) throws Exception {
+        if (USE_LOCAL_STORE) {
+            return LocalStore.get().selectAsJson(query);
+        }
 
-            //convert response to json
-            JSONMaker jm = new JSONMaker();
-            JSONParser.parseAny(new StringReader(data), jm);
-            JsonObject obj = jm.jsonValue().getAsObject();
+        HttpPost post = new HttpPost(TERRITOIRE_SERVICE_URL);
+        post.addHeader("Authorization", AUTH_TOKEN);
+        post.addHeader("Content-Type", "application/sparql-query");
+        post.setEntity(new StringEntity(query.serialize(), StandardCharsets.UTF_8));
+        try (CloseableHttpResponse response = HttpClientPool.get().execute(post)) {
+            return EntityUtils.toString(response.getEntity());
+        }
+    }
 
-            List<JsonValue> bindings = obj.getObj("results").getArray("bindings").toList();
-//        System.out.println(bindings);
+    /**
+     * Runs a SELECT query like sparqlSelect, handing each binding to the handler as it is read from the response
+     * instead of holding the whole response. Stopping the handler early leaves the rest of the response unread
+     * */
+    public static void sparqlSelect(Query query, SparqlResultStream.BindingHandler handler) throws Exception {
+        if (USE_LOCAL_STORE) {
+            LocalStore.get().select(query, handler);
+            return;
+        }
 
-            List<String> resourcesIRIs = new ArrayList<String>();
-            for (JsonValue binding : bindings) {
-                String bindingSubjectType = binding.getAsObject().getObj("sub").getString("type");
-                String bindingSubjectValue = binding.getAsObject().getObj("sub").getString("value");
-                if (bindingSubjectType.equals("uri")) {
-                    if (!resourcesIRIs.contains(bindingSubjectValue)) {
-                        resourcesIRIs.add(bindingSubjectValue);
-                    }
-                }
+        HttpPost post = new HttpPost(TERRITOIRE_SERVICE_URL);
+        post.addHeader("Authorization", AUTH_TOKEN);
+        post.addHeader("Content-Type", "application/sparql-query");
+        post.addHeader("Accept", "application/sparql-results+json");
+        post.setEntity(new StringEntity(query.serialize(), StandardCharsets.UTF_8));
+        try (CloseableHttpResponse response = HttpClientPool.get().execute(post)) {
+            checkServerStatus(response, TERRITOIRE_SERVICE_URL);
+            try (InputStream content = response.getEntity().getContent()) {
+                SparqlResultStream.parse(content, handler);
+            }
+        }
+    }
 
+    /**
+     * Streams the distinct iris bound to ?sub by a SELECT query that match the filter, at most limit of them
+     * */
+    public static List<String> selectResourceIRIs(Query query, Predicate<String> filter, int limit) throws Exception {
+        Set<String> resourcesIRIs = new LinkedHashSet<String>();
+        if (limit == 0) {
+            return new ArrayList<String>(resourcesIRIs);
+        }
+        sparqlSelect(query, binding -> {
+            String bindingSubjectValue = binding.getValue("sub");
+            if (binding.isUri("sub") && filter.test(bindingSubjectValue)) {
+                resourcesIRIs.add(bindingSubjectValue);
             }
-            return resourcesIRIs.toString();
+            return resourcesIRIs.size() < limit;
+        });
+        return new ArrayList<String>(resourcesIRIs);
+    }
+
+    /**
+     * Retrieves the events taking place on a date (UTC), returns the iri (url) to the events found
+     * */
+    public static String upcomingEventsByDate(String year, String month, String day) throws Exception {
+        return upcomingEventsByDate(year, month, day, ResultPage.ALL);
+    }
+
+    public static String upcomingEventsByDate(String year, String month, String day, ResultPage page) throws Exception {
+        LocalDate date = LocalDate.of(Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day));
+        return eventsOverlapping(date + "T00:00:00Z", date.plusDays(1) + "T00:00:00Z", page);
+    }
+
+    /**
+     * Retrieves the events overlapping [from, to) (xsd dateTimes, or dates), returns the iri (url) to the events found, by start.
+     * Answered from the EventIntervalIndex when it could be rebuilt from a scan of the ldp, otherwise with a sparql query
+     * */
+    public static String eventsOverlapping(String from, String to) throws Exception {
+        return eventsOverlapping(from, to, ResultPage.ALL);
+    }
+
+    /**
+     * A page of the events overlapping [from, to), by start
+     * */
+    public static String eventsOverlapping(String from, String to, ResultPage page) throws Exception {
+        Long fromMillis = EventIntervalIndex.toEpochMillis(from);
+        Long toMillis = EventIntervalIndex.toEpochMillis(to);
+        if (fromMillis == null || toMillis == null) {
+            throw new IllegalArgumentException("Invalid date range: " + from + " - " + to);
+        }
+        return QueryResultCache.get().getEvents(fromMillis, toMillis, page, () -> queryEventsOverlapping(fromMillis, toMillis, page));
+    }
+
+    private static String queryEventsOverlapping(long fromMillis, long toMillis, ResultPage page) throws Exception {
+        if (USE_EVENT_INTERVAL_INDEX && scanEventIntervals()) {
+            return EventIntervalIndex.get().overlapping(fromMillis, toMillis, page).toString();
+        }
+
+        String fromDateTime = Instant.ofEpochMilli(fromMillis).toString();
+        String toDateTime = Instant.ofEpochMilli(toMillis).toString();
+        try {
+
+            Query query = SparqlQueries.EVENTS_OVERLAPPING.bind()
+                    .dateTime("from", fromDateTime)
+                    .dateTime("to", toDateTime)
+                    .page(page)
+                    .toQuery();
+            System.out.println("requestBody::::");
+            System.out.println(query);
+            System.out.println();
+
+            //the page is selected by the query, the set only guards against an event bound twice
+            return selectResourceIRIs(query, resourceIRI -> true, page.getLimit()).toString();
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
@@ -883,61 +1753,60 @@ public class Main {
         }
     }
 
+    /**
+     * Rebuilds the EventIntervalIndex from one sparql query listing the start and end of every event, when its last
+     * scan is older than EVENT_INDEX_SCAN_MAX_AGE_MILLIS. An event with several dates is indexed from its earliest
+     * start to its latest end. Returns whether the index holds a recent scan, false if the scan failed
+     * */
+    private static boolean scanEventIntervals() {
+        EventIntervalIndex index = EventIntervalIndex.get();
+        try {
+            boolean rebuilt = index.rebuild(EVENT_INDEX_SCAN_MAX_AGE_MILLIS, intervals ->
+                    sparqlSelect(SparqlQueries.EVENT_INTERVALS.bind().toQuery(), binding -> {
+                        Long start = EventIntervalIndex.toEpochMillis(binding.getValue("startDate"));
+                        Long end = EventIntervalIndex.toEpochMillis(binding.getValue("endDate"));
+                        if (binding.isUri("sub") && start != null && end != null) {
+                            intervals.merge(binding.getValue("sub"), new long[]{start, Math.max(start, end)},
+                                    (interval, other) -> new long[]{Math.min(interval[0], other[0]), Math.max(interval[1], other[1])});
+                        }
+                        return true;
+                    }));
+            if (rebuilt) {
+                //results cached before the scan may miss events written to the ldp by someone else
+                QueryResultCache.get().invalidateAll();
+                System.out.println("Scanned " + index.size() + " events into the event interval index");
+            }
+        } catch (Exception e) {
+            System.out.println("Could not scan the events into the event interval index: " + e.getMessage());
+        }
+        return index.isScannedWithin(EVENT_INDEX_SCAN_MAX_AGE_MILLIS);
+    }
+
     /**
      * Uses a sparql query to retrieve events without schema:Course property, returns the iri (url) to the events found
      * */
     public static String nonCourseEvents() throws Exception {
+        return nonCourseEvents(ResultPage.ALL);
+    }
+
+    /**
+     * A page of the events without schema:Course property, by iri
+     * */
+    public static String nonCourseEvents(ResultPage page) throws Exception {
+        return QueryResultCache.get().getForAllEvents("non-course-events" + page.key(), () -> queryNonCourseEvents(page));
+    }
+
+    private static String queryNonCourseEvents(ResultPage page) throws Exception {
 
         try {
 
-            HttpPost post = new HttpPost(TERRITOIRE_SERVICE_URL);
-            post.addHeader("Authorization", AUTH_TOKEN);
-            post.addHeader("Content-Type", "application/sparql-query");
-
-
-            String requestBody = "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n" +
-                    "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
-                    "PREFIX schema: <http://schema.org/>\n" +
-                    "\n" +
-                    "SELECT * WHERE {\n" +
-                    "  ?sub a schema:Event.\n" +
-                    "  FILTER (\n" +
-                    "     !EXISTS {\n" +
-                    "       ?sub a schema:Course\n" +
-                    "     }\n" +
-                    "   )\n" +
-                    "}";
+            Query query = SparqlQueries.NON_COURSE_EVENTS.bind().page(page).toQuery();
 
             System.out.println("requestBody::::");
-            System.out.println(requestBody);
+            System.out.println(query);
             System.out.println();
 
-            StringEntity requestBodyEntity = new StringEntity(requestBody);
-            post.setEntity(requestBodyEntity);
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-            CloseableHttpResponse response = httpClient.execute(post);
-
-            String data = EntityUtils.toString(response.getEntity());
-
-            //convert response to json
-            JSONMaker jm = new JSONMaker();
-            JSONParser.parseAny(new StringReader(data), jm);
-            JsonObject obj = jm.jsonValue().getAsObject();
-
-            List<JsonValue> bindings = obj.getObj("results").getArray("bindings").toList();
-
-            List<String> resourcesIRIs = new ArrayList<String>();
-            for (JsonValue binding : bindings) {
-                String bindingSubjectType = binding.getAsObject().getObj("sub").getString("type");
-                String bindingSubjectValue = binding.getAsObject().getObj("sub").getString("value");
-                if (bindingSubjectType.equals("uri")) {
-                    if (!resourcesIRIs.contains(bindingSubjectValue)) {
-                        resourcesIRIs.add(bindingSubjectValue);
-                    }
-                }
-
-            }
-            return resourcesIRIs.toString();
+            return selectResourceIRIs(query, resourceIRI -> true, page.getLimit()).toString();
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
@@ -952,33 +1821,12 @@ public class Main {
 
         try {
 
-            HttpPost post = new HttpPost(TERRITOIRE_SERVICE_URL);
-            post.addHeader("Authorization", AUTH_TOKEN);
-            post.addHeader("Content-Type", "application/sparql-query");
-
-
-            String requestBody = "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n" +
-                    "PREFIX ex: <http://example.org/>\n" +
-                    "PREFIX schema: <http://schema.org/>\n" +
-                    "\n" +
-                    "SELECT ?sub WHERE {\n" +
-                    "  ?sub ?pred ?obj;\n" +
-                    "  schema:location <" + location + ">;\n" +
-                    "  schema:startDate ?startDate;\n" +
-                    "  schema:endDate ?endDate.\n" +
-                    "  FILTER(xsd:dateTime(?startDate) = \"" + startDate + "\"^^<http://www.w3.org/2001/XMLSchema#dateTime>)\n" +
-                    "  FILTER(xsd:dateTime(?endDate) = \"" + endDate + "\"^^<http://www.w3.org/2001/XMLSchema#dateTime>)\n" +
-                    "}";
+            Query query = sameEventsQuery(startDate, endDate, location);
             System.out.println("requestBody::::");
-            System.out.println(requestBody);
+            System.out.println(query);
             System.out.println();
 
-            StringEntity requestBodyEntity = new StringEntity(requestBody);
-            post.setEntity(requestBodyEntity);
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-            CloseableHttpResponse response = httpClient.execute(post);
-
-            return (EntityUtils.toString(response.getEntity()));
+            return sparqlSelect(query);
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
@@ -986,191 +1834,388 @@ public class Main {
         }
     }
 
+    /**
+     * The sparql query retrieving the events at a location with the given start and end dates and times,
+     * rejecting a location that is not an absolute iri or dates that are not xsd:dateTimes
+     * */
+    public static Query sameEventsQuery(String startDate, String endDate, String location) {
+        return SparqlQueries.SAME_EVENTS.bind()
+                .iri("location", location)
+                .dateTime("start", startDate)
+                .dateTime("end", endDate)
+                .toQuery();
+    }
+
 
     /**
-     * calls the discoverSameEvents method to retrieve events with the same start and end dates and times,
+     * Retrieves the events with the same location, start and end dates and times,
      * Links the results found using the owl:sameAs property
      * returns the iri (url) to the events found
      * */
     public static List<String> linkSameEvents(String startDate, String endDate, String location) throws Exception {
 
-        String sameEvents = discoverSameEvents(startDate, endDate, location);
+        //streamed and deduplicated
+        List<String> resourcesIRIs = selectResourceIRIs(sameEventsQuery(startDate, endDate, location),
+                resourceIRI -> resourceIRI.contains(TERRITOIRE_SERVICE_URL), Integer.MAX_VALUE);
 
-        //convert events to json
-        JSONMaker jm = new JSONMaker();
-        JSONParser.parseAny(new StringReader(sameEvents), jm);
-        JsonObject obj = jm.jsonValue().getAsObject();
+        List<UploadPipeline.Outcome> failures = linkEventGroups(List.of(resourcesIRIs));
+        if (!failures.isEmpty()) {
+            throw new Exception("Linking failed: " + failures);
+        }
+        return resourcesIRIs;
+    }
 
-        List<JsonValue> bindings = obj.getObj("results").getArray("bindings").toList();
-//        System.out.println(bindings);
 
-        List<String> resourcesIRIs = new ArrayList<String>();
-        for (JsonValue binding : bindings) {
-            String bindingSubjectValue = binding.getAsObject().getObj("sub").getString("value");
-            if (bindingSubjectValue.contains(TERRITOIRE_SERVICE_URL)) {
-                if (!resourcesIRIs.contains(bindingSubjectValue)) {
-                    resourcesIRIs.add(bindingSubjectValue);
-                }
+    /**
+     * Links all the events of the ldp sharing a location, start and end with owl:sameAs in one pass:
+     * a single query lists the slot of every event, the events are grouped by slot in a hash map,
+     * then each event of a group is written once with the links to all the others.
+     * returns the groups of linked events
+     * */
+    public static List<List<String>> linkAllSameEvents() throws Exception {
+        Map<String, Set<String>> eventsBySlot = new HashMap<String, Set<String>>();
+        sparqlSelect(SparqlQueries.EVENT_SLOTS.bind().toQuery(), binding -> {
+            String resourceIRI = binding.getValue("sub");
+            if (binding.isUri("sub") && resourceIRI.contains(TERRITOIRE_SERVICE_URL)) {
+                String slot = eventSlotKey(binding.getValue("location"), binding.getValue("startDate"), binding.getValue("endDate"));
+                eventsBySlot.computeIfAbsent(slot, key -> new LinkedHashSet<String>()).add(resourceIRI);
             }
+            return true;
+        });
 
+        List<List<String>> groups = new ArrayList<List<String>>();
+        for (Set<String> events : eventsBySlot.values()) {
+            if (events.size() > 1) {
+                groups.add(new ArrayList<String>(events));
+            }
         }
 
-//        System.out.println(resourcesIRIs);
-
-
-        for (String currentResourceIRI : resourcesIRIs) {
-
-            //loop through other resources, fetch and add same as the current
-            for (String resourceIRIExceptCurrent : resourcesIRIs) {
-                if (!resourceIRIExceptCurrent.equals(currentResourceIRI)) {
-
-                    HttpGet get = new HttpGet(resourceIRIExceptCurrent.trim());
-                    get.addHeader("Authorization", AUTH_TOKEN);
-
-                    CloseableHttpResponse response;
-                    String eTagHeader;
-                    try {
-                        CloseableHttpClient httpClient = HttpClients.createDefault();
-                        response = httpClient.execute(get);
-
-                        eTagHeader = response.getFirstHeader("ETag").getValue();
-
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                        throw new Exception(e);
-                    }
+        List<UploadPipeline.Outcome> failures = linkEventGroups(groups);
+        System.out.println("Linked " + groups.size() + " groups of same events among " + eventsBySlot.size() + " slots, " + failures.size() + " failed");
+        for (UploadPipeline.Outcome failure : failures) {
+            System.out.println(failure);
+        }
+        return groups;
+    }
 
-                    String data = EntityUtils.toString(response.getEntity());
+    /**
+     * Links the events of the ldp that describe the same happening with slightly different times or titles:
+     * events at the same location starting within FUZZY_LINK_TIME_BUCKET_MILLIS of each other are linked with owl:sameAs
+     * when the estimated similarity of their title and description reaches the threshold (see FuzzyEventLinker).
+     * returns the pairs of linked events
+     * */
+    public static List<List<String>> linkSimilarEvents(double threshold) throws Exception {
+        //a row per combination of optional values, so the values of each event are collected first
+        Map<String, Long> starts = new HashMap<String, Long>();
+        Map<String, String> locations = new HashMap<String, String>();
+        Map<String, Set<String>> texts = new HashMap<String, Set<String>>();
+        sparqlSelect(SparqlQueries.EVENT_TEXTS.bind().toQuery(), binding -> {
+            String resourceIRI = binding.getValue("sub");
+            Long start = EventIntervalIndex.toEpochMillis(binding.getValue("startDate"));
+            if (!binding.isUri("sub") || !resourceIRI.contains(TERRITOIRE_SERVICE_URL) || start == null) {
+                return true;
+            }
+            starts.putIfAbsent(resourceIRI, start);
+            String locationIRI = binding.isUri("location") ? binding.getValue("location") : null;
+            locations.putIfAbsent(resourceIRI, FuzzyEventLinker.locationKey(locationIRI, binding.getValue("locationName")));
+            Set<String> eventTexts = texts.computeIfAbsent(resourceIRI, key -> new LinkedHashSet<String>());
+            for (String variable : new String[]{"summary", "name", "description"}) {
+                if (binding.getValue(variable) != null) {
+                    eventTexts.add(binding.getValue(variable));
+                }
+            }
+            return true;
+        });
 
-                    // write results to file
-                    String tempFileName = FETCHED_RESOURCE_TEMP_NAME; //REFACTOR TO include random numbers
+        FuzzyEventLinker linker = new FuzzyEventLinker(threshold);
+        for (Map.Entry<String, Long> event : starts.entrySet()) {
+            linker.add(event.getKey(), event.getValue(), locations.get(event.getKey()), String.join(" ", texts.get(event.getKey())));
+        }
+        List<List<String>> pairs = new ArrayList<List<String>>();
+        for (String[] pair : linker.findPairs()) {
+            pairs.add(List.of(pair));
+        }
 
-                    FileWriter writer = new FileWriter(tempFileName);
-                    BufferedWriter bufferedWriter = new BufferedWriter(writer);
+        List<UploadPipeline.Outcome> failures = linkEventGroups(pairs);
+        System.out.println("Linked " + pairs.size() + " pairs of similar events among " + linker.getEventCount() + " events ("
+                + linker.getComparisonCount() + " comparisons), " + failures.size() + " failed");
+        for (UploadPipeline.Outcome failure : failures) {
+            System.out.println(failure);
+        }
+        return pairs;
+    }
 
-                    bufferedWriter.write(data);
-                    bufferedWriter.close();
+    /**
+     * The slot of an event: its location with its start and end as instants, so that equal dateTimes written
+     * differently (eg with another offset) fall in the same slot
+     * */
+    public static String eventSlotKey(String location, String startDate, String endDate) {
+        Long start = EventIntervalIndex.toEpochMillis(startDate);
+        Long end = EventIntervalIndex.toEpochMillis(endDate);
+        return location + "\t" + (start != null ? start : startDate) + "\t" + (end != null ? end : endDate);
+    }
 
-                    //read file into jena and update or delete and repost
-                    Model model = ModelFactory.createDefaultModel();
-                    model.read(FETCHED_RESOURCE_TEMP_NAME);
+    /**
+     * Adds owl:sameAs links between the events of each group, writing every event once with all of its links
+     * (an event found in several groups is linked to the events of all of them).
+     * returns the outcome of the events that could not be written
+     * */
+    public static List<UploadPipeline.Outcome> linkEventGroups(List<? extends Collection<String>> groups) throws Exception {
+        Map<String, Set<String>> sameEvents = new LinkedHashMap<String, Set<String>>();
+        for (Collection<String> group : groups) {
+            for (String resourceIRI : group) {
+                Set<String> links = sameEvents.computeIfAbsent(resourceIRI, key -> new LinkedHashSet<String>());
+                links.addAll(group);
+                links.remove(resourceIRI);
+            }
+        }
 
-                    final org.apache.jena.rdf.model.Property SAME_AS = model.createProperty(OWL_PREFIX + "sameAs");
-                    model.getResource(resourceIRIExceptCurrent).addProperty(SAME_AS, model.createResource(currentResourceIRI));
+        List<UploadPipeline.Outcome> failures = new ArrayList<UploadPipeline.Outcome>();
+        try (UploadPipeline uploadPipeline = new UploadPipeline()) {
+            for (Map.Entry<String, Set<String>> entry : sameEvents.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                uploadPipeline.submit(entry.getKey(), UploadPipeline.Status.UPDATED, () -> {
+                    addSameAsLinks(entry.getKey(), entry.getValue());
+                    return entry.getKey();
+                }, null);
+            }
+            for (UploadPipeline.Outcome outcome : uploadPipeline.getReport()) {
+                if (outcome.status == UploadPipeline.Status.FAILED) {
+                    failures.add(outcome);
+                }
+            }
+        }
+        return failures;
+    }
 
-                    // list the statements in the Model
-//        StmtIterator iter = model.listStatements();
-//
-//        while (iter.hasNext()) {
-//            Statement stmt      = iter.nextStatement();  // get next statement
-//            Resource  subject   = stmt.getSubject();     // get the subject
-//            org.apache.jena.rdf.model.Property predicate = stmt.getPredicate();   // get the predicate
-//            RDFNode   object    = stmt.getObject();      // get the object
-//
-//            System.out.print(subject.toString());
-//            System.out.print(" " + predicate.toString() + " ");
-//            if (object instanceof Resource) {
-//                System.out.print(object.toString());
-//            } else {
-//                // object is a literal
-//                System.out.print(" \"" + object.toString() + "\"");
-//            }
-//
-//            System.out.println(" .");
-//        }
+    /**
+     * Adds owl:sameAs links from an event to other events with a single write
+     * */
+    public static void addSameAsLinks(String resourceIRI, Collection<String> sameEventIRIs) throws Exception {
+        Model links = ModelFactory.createDefaultModel();
+        Resource event = links.createResource(resourceIRI);
+        org.apache.jena.rdf.model.Property sameAs = links.createProperty(OWL_PREFIX + "sameAs");
+        for (String sameEventIRI : sameEventIRIs) {
+            event.addProperty(sameAs, links.createResource(sameEventIRI));
+        }
+        resourceMutator().insert(resourceIRI, links);
+        System.out.println(sameEventIRIs + " now added as owl:sameAs for " + resourceIRI);
+    }
 
-                    //write to file
-                    writer = new FileWriter(FETCHED_RESOURCE_TEMP_NAME);
-                    bufferedWriter = new BufferedWriter(writer);
+    /**
+     * Scrapes alentoor.fr from events information for the spefic city defined by user, following the pages of its agenda,
+     * and uploads the new and changed events to ldp (see crawlCities)
+     * returns false when an event did not conform to the shacl shape
+     * */
+    public static boolean fetchRDFFromUrl(String alentoorCity) throws Exception {
+        JsonObject citySummary = crawlCities(List.of(alentoorCity)).get("cities").getAsArray().get(0).getAsObject();
+        if (citySummary.hasKey("error") && citySummary.get("events").getAsNumber().value().intValue() == 0) {
+            throw new Exception(citySummary.get("error").getAsString().value());
+        }
+        return citySummary.get("invalid").getAsNumber().value().intValue() == 0;
+    }
 
-                    model.write(bufferedWriter, "Turtle");
+    /**
+     * Rewrites the json ld of an alentoor event for the ldp: resolvable schema.org context,
+     * and an @id in the ldp container (alentoor ids become $container/$city-agenda-$number/)
+     * */
+    public static String alentoorEventJsonLD(String jsonLD, String alentoorCity) {
+        String element = jsonLD.replace("@context\":\"http://schema.org", "@context\":\"http://schema.org/docs/jsonldcontext.json");
 
-                    //push file online
-                    try {
+        element = element.replaceFirst(ALENTOOR_URL + "agenda/", TERRITOIRE_CONTAINER_SERVICE_URL + alentoorCity + "-agenda-");
 
-                        HttpPut put = new HttpPut(resourceIRIExceptCurrent);
-                        put.addHeader("Authorization", AUTH_TOKEN);
-                        put.addHeader("Accept", "text/turtle");
-                        put.addHeader("Content-Type", "text/turtle");
-                        put.addHeader("If-Match", eTagHeader);
-                        put.addHeader("Prefer", "http://www.w3.org/ns/ldp#RDFSource; rel=interaction-model");
+        //UNIQUE TO ALENTOOR
+        Pattern pattern = Pattern.compile("\"@id\":\"" + Pattern.quote(TERRITOIRE_CONTAINER_SERVICE_URL + alentoorCity + "-agenda-") + "[0-9]+\"");
+        Matcher matcher = pattern.matcher(element);
+        if (matcher.find()) {
+            element = element.substring(0, matcher.end() - 1) + "/" + element.substring(matcher.end() - 1);
+        }
+        return element;
+    }
 
+    /**
+     * The key of a rewritten alentoor event in the alentoor manifest: the name of its resource in the ldp container
+     * ($city-agenda-$number), or null when it has no alentoor @id
+     * */
+    public static String alentoorEventKey(String rewrittenJsonLD) {
+        Matcher matcher = ALENTOOR_EVENT_ID_PATTERN.matcher(rewrittenJsonLD);
+        return matcher.find() ? matcher.group(1) : null;
+    }
 
-                        String requestBody = Files.readString(Path.of(FETCHED_RESOURCE_TEMP_NAME));
+    /**
+     * Crawls the agendas of several alentoor cities concurrently (see AlentoorCrawler). Each event is converted,
+     * validated and queued for upload as soon as its city page is parsed, the uploads of all cities sharing one
+     * upload pipeline. Events are tracked in the alentoor manifest by @id with a hash of their json ld, so events
+     * unchanged since the last crawl are skipped, and once the whole agenda of a city was read, its events no longer
+     * listed are removed from the ldp (as parseCalendarToRDF does for events gone from the calendar).
+     * Returns the timings of each city and what happened to its events
+     * */
+    public static JsonObject crawlCities(List<String> cities) throws Exception {
+        long startedAt = System.currentTimeMillis();
+        IngestManifest manifest = IngestManifest.load(ALENTOOR_MANIFEST_FILE_NAME);
+        //events seen in this crawl, an event listed on two pages of an agenda is handled once
+        Set<String> seenEventKeys = ConcurrentHashMap.newKeySet();
+        Map<String, Integer> unchangedByCity = new ConcurrentHashMap<String, Integer>();
+        List<AlentoorCrawler.CityResult> cityResults;
+        List<UploadPipeline.Outcome> report;
+        UploadPipeline uploadPipeline = new UploadPipeline();
+        try {
+            cityResults = new AlentoorCrawler().crawl(cities, (city, eventNumber, jsonLD) -> {
+                String element = alentoorEventJsonLD(jsonLD, city);
+                String eventKey = alentoorEventKey(element);
+                String contentHash = sha256Hex(element);
+                IngestManifest.Entry entry = eventKey == null ? null : manifest.get(eventKey);
+                if ((eventKey != null && !seenEventKeys.add(eventKey))
+                        || (entry != null && entry.contentHash.equals(contentHash)
+                        && (!USE_LOCAL_STORE || LocalStore.get().contains(entry.resourceIRI)))) {
+                    unchangedByCity.merge(city, 1, Integer::sum);
+                    return;
+                }
 
-                        StringEntity requestBodyEntity = new StringEntity(requestBody);
-                        put.setEntity(requestBodyEntity);
+                Model model = ModelFactory.createDefaultModel();
+                model.read(new StringReader(element), null, "JSON-LD");
+                submitCrawledEvent(uploadPipeline, model, city + "-event-" + eventNumber, outcome -> {
+                    if (eventKey != null && outcome.resourceIRI != null) {
+                        manifest.put(new IngestManifest.Entry(eventKey, "", "", contentHash, outcome.resourceIRI));
+                    }
+                });
+            });
 
+            //only a complete crawl tells which events a city no longer lists
+            for (AlentoorCrawler.CityResult cityResult : cityResults) {
+                if (cityResult.complete) {
+                    removeUnlistedEvents(uploadPipeline, manifest, cityResult.city, seenEventKeys);
+                }
+            }
+            report = uploadPipeline.getReport();
+        } finally {
+            uploadPipeline.close();
+            manifest.save();
+        }
+        EventIntervalIndex.get().save();
+
+        //outcome keys are $city-event-$number
+        Map<String, Map<UploadPipeline.Status, Integer>> statusCountsByCity = new HashMap<String, Map<UploadPipeline.Status, Integer>>();
+        for (UploadPipeline.Outcome outcome : report) {
+            String city = outcome.key.substring(0, outcome.key.lastIndexOf("-event-"));
+            statusCountsByCity.computeIfAbsent(city, key -> new EnumMap<>(UploadPipeline.Status.class)).merge(outcome.status, 1, Integer::sum);
+            if (outcome.status == UploadPipeline.Status.FAILED || outcome.status == UploadPipeline.Status.UNLOCATED) {
+                System.out.println(outcome);
+            }
+        }
 
-                        CloseableHttpClient httpClient = HttpClients.createDefault();
-                        response = httpClient.execute(put);
+        JsonArray citySummaries = new JsonArray();
+        for (AlentoorCrawler.CityResult cityResult : cityResults) {
+            Map<UploadPipeline.Status, Integer> statusCounts = statusCountsByCity.getOrDefault(cityResult.city, Collections.emptyMap());
+            int uploaded = statusCounts.getOrDefault(UploadPipeline.Status.CREATED, 0) + statusCounts.getOrDefault(UploadPipeline.Status.UPDATED, 0);
+            System.out.println(cityResult + ", uploaded: " + uploaded
+                    + ", unchanged: " + unchangedByCity.getOrDefault(cityResult.city, 0)
+                    + ", deleted: " + statusCounts.getOrDefault(UploadPipeline.Status.DELETED, 0)
+                    + ", invalid: " + statusCounts.getOrDefault(UploadPipeline.Status.INVALID, 0)
+                    + ", failed: " + statusCounts.getOrDefault(UploadPipeline.Status.FAILED, 0)
+                    + ", created without location: " + statusCounts.getOrDefault(UploadPipeline.Status.UNLOCATED, 0));
+
+            JsonObject citySummary = new JsonObject();
+            citySummary.put("city", cityResult.city);
+            citySummary.put("pages", cityResult.pageCount);
+            citySummary.put("events", cityResult.eventCount);
+            citySummary.put("uploaded", uploaded);
+            citySummary.put("unchanged", unchangedByCity.getOrDefault(cityResult.city, 0));
+            citySummary.put("deleted", statusCounts.getOrDefault(UploadPipeline.Status.DELETED, 0));
+            citySummary.put("invalid", statusCounts.getOrDefault(UploadPipeline.Status.INVALID, 0));
+            citySummary.put("failed", statusCounts.getOrDefault(UploadPipeline.Status.FAILED, 0));
+            citySummary.put("unlocated", statusCounts.getOrDefault(UploadPipeline.Status.UNLOCATED, 0));
+            citySummary.put("waitMillis", cityResult.waitMillis);
+            citySummary.put("fetchMillis", cityResult.fetchMillis);
+            citySummary.put("processMillis", cityResult.processMillis);
+            if (cityResult.error != null) {
+                citySummary.put("error", cityResult.error);
+            }
+            citySummaries.add(citySummary);
+        }
 
-                        try {
-                            Files.deleteIfExists(Paths.get(FETCHED_RESOURCE_TEMP_NAME));
-                        } catch (Exception ex) {
-//                            System.out.println("file probably still in use");
-                        }
+        long elapsedMillis = System.currentTimeMillis() - startedAt;
+        System.out.println("Crawled " + cities.size() + " cities in " + elapsedMillis + " ms, retries: " + uploadPipeline.getRetryCount());
+        JsonObject summary = new JsonObject();
+        summary.put("elapsedMillis", elapsedMillis);
+        summary.put("cities", citySummaries);
+        return summary;
+    }
 
-                        System.out.println(response.toString());
-                        System.out.println(currentResourceIRI + " resource now added as ow:sameAs for " + resourceIRIExceptCurrent);
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                        throw new Exception(e);
-                    }
+    /**
+     * Removes from the ldp and the alentoor manifest the events of a city ($city-agenda-$number) that were not seen
+     * in a complete crawl of its agenda, unless that is more than PRUNE_MAX_FRACTION of the events of the city
+     * (more likely a page that changed than an agenda that emptied)
+     * */
+    private static void removeUnlistedEvents(UploadPipeline uploadPipeline, IngestManifest manifest, String city,
+                                             Set<String> seenEventKeys) throws InterruptedException {
+        String cityPrefix = city + "-agenda-";
+        int cityEventCount = 0;
+        List<String> unlistedEventKeys = new ArrayList<String>();
+        for (String eventKey : manifest.uids()) {
+            if (eventKey.startsWith(cityPrefix) && eventKey.substring(cityPrefix.length()).matches("[0-9]+")) {
+                cityEventCount++;
+                if (!seenEventKeys.contains(eventKey)) {
+                    unlistedEventKeys.add(eventKey);
                 }
             }
         }
-        return resourcesIRIs;
+        if (unlistedEventKeys.size() > PRUNE_MAX_FRACTION * cityEventCount) {
+            System.out.println(city + ": not removing the " + unlistedEventKeys.size() + " events no longer listed, more than "
+                    + PRUNE_MAX_FRACTION + " of the " + cityEventCount + " events uploaded");
+            return;
+        }
+        for (String eventKey : unlistedEventKeys) {
+            String resourceIRI = manifest.get(eventKey).resourceIRI;
+            //outcome keys are $city-event-..., like those of the uploads
+            String label = city + "-event-" + eventKey;
+            if (USE_LOCAL_STORE) {
+                removeResource(resourceIRI);
+                manifest.remove(eventKey);
+                unindexEvent(resourceIRI);
+                uploadPipeline.record(new UploadPipeline.Outcome(label, UploadPipeline.Status.DELETED, resourceIRI, 1, null));
+                continue;
+            }
+            UploadOutbox.Mutation mutation = UploadOutbox.get().append(UploadOutbox.DELETE, resourceIRI, label, null);
+            submitMutation(uploadPipeline, mutation, UploadPipeline.Status.DELETED, outcome -> {
+                manifest.remove(eventKey);
+                unindexEvent(resourceIRI);
+            });
+        }
     }
 
-
     /**
-     * Scrapes alentoor.fr from events information for the spefic city defined by user,
-     * writes the json ld results retrieved to files and calls on another method to parse the files to turtle for processing and upload to ldp
+     * Validates a crawled event and queues its upload: written to the local store when it is used, otherwise journaled
+     * in the outbox and sent through the upload pipeline (PUT when the event has an iri in the container, else POST).
+     * onSuccess is called with the outcome once the event is written
      * */
-    public static boolean fetchRDFFromUrl(String url, String alentoorCity) throws Exception {
-        Document document = Jsoup.connect(url).get();
-
-        String jsonLDString = "";
-
-        final Integer[] count = {1};
-        document.select("script").forEach(el ->
-                {
-                    String element = String.valueOf(el);
-                    if (element.contains("application/ld+json")) {
-                        element = element.replace("<script type=\"application/ld+json\">", "");
-                        element = element.replace("</script>", "");
-                        element = element.replace("@context\":\"http://schema.org", "@context\":\"http://schema.org/docs/jsonldcontext.json");
-
-                        element = element.replaceFirst("https://www.alentoor.fr/agenda/", TERRITOIRE_CONTAINER_SERVICE_URL + alentoorCity + "-agenda-");
-
-                        //UNIQUE TO ALENTOOR
-//                        Pattern pattern = Pattern.compile("[a-zA-Z]+://[a-zA-Z]+\\.[a-zA-Z]+\\.[a-zA-Z]+/[a-zA-Z]+/[a-zA-Z]+/[a-zA-Z]+/[0-9]+");
-
-                        Pattern pattern = Pattern.compile("\"@id\":\"https://territoire.emse.fr/ldp/mieventcontainer/" + alentoorCity + "-agenda-[0-9]+\"");
-                        Matcher matcher = pattern.matcher(element);
-                        if (matcher.find()) {
-
-                            String strToReplace = matcher.group();
-//                            System.out.println(strToReplace);
-                            element = element.replaceFirst(strToReplace, strToReplace.substring(0, strToReplace.length() - 1) + "/\"");
-                            System.out.println(element);
-                        }
-
-//                        rdfsItem.add(String.valueOf(element));
-                        try {
-                            writeStringToFile(element, FETCHED_JSON_LD_TEMP_NAME + "-" + count[0].toString() + ".jsonld");
-                            count[0]++;
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                }
-        );
-//        document.select("script").forEach(System.out::println);
-//        System.out.println(rdfsItem.size());
-//        System.out.println(rdfsItem);
-        return parseJSONLDToRDF(count[0]);
+    private static void submitCrawledEvent(UploadPipeline uploadPipeline, Model model, String label,
+                                           Consumer<UploadPipeline.Outcome> onSuccess) throws Exception {
+        if (!validateEvent(model, label, false)) {
+            uploadPipeline.record(new UploadPipeline.Outcome(label, UploadPipeline.Status.INVALID, null, 0, "see " + label + ".ttl"));
+            return;
+        }
+        String resourceIRI = containerResourceIRI(model);
+        if (USE_LOCAL_STORE && resourceIRI != null) {
+            writeResource(resourceIRI, model);
+            indexEvent(resourceIRI, model);
+            UploadPipeline.Outcome outcome = new UploadPipeline.Outcome(label, UploadPipeline.Status.UPDATED, resourceIRI, 1, null);
+            onSuccess.accept(outcome);
+            uploadPipeline.record(outcome);
+            return;
+        }
+        UploadOutbox.Mutation mutation = resourceIRI != null
+                ? UploadOutbox.get().append(UploadOutbox.PUT, resourceIRI, label, modelToTurtle(model))
+                : UploadOutbox.get().append(UploadOutbox.POST, TERRITOIRE_CONTAINER_SERVICE_URL, label, modelToTurtle(model));
+        UploadPipeline.Status status = resourceIRI != null ? UploadPipeline.Status.UPDATED : UploadPipeline.Status.CREATED;
+        submitMutation(uploadPipeline, mutation, status, outcome -> {
+            if (outcome.resourceIRI != null) {
+                indexEvent(outcome.resourceIRI, model);
+            }
+            onSuccess.accept(outcome);
+        });
     }
 
 }
\ No newline at end of file
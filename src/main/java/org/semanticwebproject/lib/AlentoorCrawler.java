@@ -0,0 +1,222 @@
+package org.semanticwebproject.lib;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Fetches the agenda pages of several alentoor cities concurrently and hands the json ld of every event to a handler
+ * as soon as its page is parsed, so conversion and upload of a city start while other cities are still downloading.
+ * The agenda of a city is followed page by page through its rel="next" links, up to CRAWL_MAX_PAGES pages.
+ * Requests to a host are limited to CRAWL_MAX_CONNECTIONS_PER_HOST at once and started at most
+ * CRAWL_MAX_REQUESTS_PER_SECOND times per second (politeness towards alentoor.fr), so the time of a crawl is about
+ * that of its slowest city as long as the cities fit within those limits
+ * */
+public class AlentoorCrawler {
+
+    /**
+     * Converts and uploads the json ld of one event; called on the crawler threads, concurrently
+     * */
+    public interface EventHandler {
+        void accept(String city, int eventNumber, String jsonLD) throws Exception;
+    }
+
+    /**
+     * How a city went: time waiting for the host limits, fetching and parsing its pages, handing its events over.
+     * complete when the whole agenda was read: no error, not stopped at CRAWL_MAX_PAGES, and events found
+     * (a page without events, eg a bot challenge or a consent page, is not an empty agenda)
+     * */
+    public static class CityResult {
+        public final String city;
+        public final int pageCount;
+        public final int eventCount;
+        public final long waitMillis;
+        public final long fetchMillis;
+        public final long processMillis;
+        public final String error;
+        public final boolean complete;
+
+        CityResult(String city, int pageCount, int eventCount, long waitMillis, long fetchMillis, long processMillis, String error, boolean complete) {
+            this.city = city;
+            this.pageCount = pageCount;
+            this.eventCount = eventCount;
+            this.waitMillis = waitMillis;
+            this.fetchMillis = fetchMillis;
+            this.processMillis = processMillis;
+            this.error = error;
+            this.complete = complete;
+        }
+
+        @Override
+        public String toString() {
+            return city + ": " + (error != null ? "FAILED " + error + ", " : "") + eventCount + " events on " + pageCount + (pageCount == 1 ? " page" : " pages")
+                    + " (waited " + waitMillis + " ms, fetched in " + fetchMillis + " ms, processed in " + processMillis + " ms)";
+        }
+    }
+
+    /**
+     * Politeness limits of one host: a bound on concurrent requests and a minimum spacing between request starts
+     * */
+    private static final class HostLimit {
+        final Semaphore connections = new Semaphore(CRAWL_MAX_CONNECTIONS_PER_HOST);
+        private long nextStartNanos;
+
+        /**
+         * Reserves the next start slot of the host and sleeps until it comes
+         * */
+        void awaitStart() throws InterruptedException {
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / CRAWL_MAX_REQUESTS_PER_SECOND;
+            long startNanos;
+            synchronized (this) {
+                startNanos = Math.max(System.nanoTime(), nextStartNanos);
+                nextStartNanos = startNanos + intervalNanos;
+            }
+            long waitNanos = startNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+    private final Map<String, HostLimit> hostLimits = new ConcurrentHashMap<String, HostLimit>();
+
+    /**
+     * The agenda page of a city
+     * */
+    public static String agendaUrl(String city) {
+        return ALENTOOR_URL + city + "/agenda";
+    }
+
+    /**
+     * Crawls the cities, each on its own thread, returning the result of each city in the order given.
+     * A failing city (page not found, timeout, handler error) does not stop the others
+     * */
+    public List<CityResult> crawl(List<String> cities, EventHandler handler) throws InterruptedException {
+        if (cities.isEmpty()) {
+            return new ArrayList<CityResult>();
+        }
+        //fetching is waiting on the network, so a thread per city up to CRAWL_THREADS
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(cities.size(), CRAWL_THREADS), runnable -> {
+            Thread thread = new Thread(runnable, "alentoor-crawl-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<CityResult>> futures = new ArrayList<Future<CityResult>>();
+            for (String city : cities) {
+                futures.add(executor.submit(() -> crawlCity(city, handler)));
+            }
+            List<CityResult> results = new ArrayList<CityResult>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new CityResult(cities.get(i), 0, 0, 0, 0, 0, String.valueOf(e.getCause()), false));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CityResult crawlCity(String city, EventHandler handler) throws InterruptedException {
+        String url = agendaUrl(city);
+        Set<String> visitedUrls = new HashSet<String>();
+        int pageCount = 0;
+        int eventCount = 0;
+        long waitNanos = 0;
+        long fetchNanos = 0;
+        long processNanos = 0;
+        String error = null;
+
+        while (url != null && pageCount < CRAWL_MAX_PAGES && visitedUrls.add(url)) {
+            HostLimit hostLimit = hostLimits.computeIfAbsent(URI.create(url).getHost(), host -> new HostLimit());
+            long queuedAt = System.nanoTime();
+            long fetchStartedAt;
+            Document document;
+            hostLimit.connections.acquire();
+            try {
+                hostLimit.awaitStart();
+                fetchStartedAt = System.nanoTime();
+                waitNanos += fetchStartedAt - queuedAt;
+                try {
+                    document = Jsoup.connect(url).timeout(HTTP_SOCKET_TIMEOUT_MILLIS).get();
+                } catch (Exception e) {
+                    fetchNanos += System.nanoTime() - fetchStartedAt;
+                    error = e.toString();
+                    break;
+                }
+            } finally {
+                hostLimit.connections.release();
+            }
+            long fetchedAt = System.nanoTime();
+            fetchNanos += fetchedAt - fetchStartedAt;
+            pageCount++;
+
+            List<String> pageEvents = eventsJsonLD(document);
+            try {
+                for (String jsonLD : pageEvents) {
+                    eventCount++;
+                    handler.accept(city, eventCount, jsonLD);
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                error = e.toString();
+                break;
+            } finally {
+                processNanos += System.nanoTime() - fetchedAt;
+            }
+
+            //a page without events is past the end of the agenda
+            url = pageEvents.isEmpty() ? null : nextPageUrl(document);
+        }
+        //the agenda ended (or went round to a page already read) rather than the crawl stopping at CRAWL_MAX_PAGES,
+        //and it had events: a city whose first page has none was not read, whatever the page is
+        boolean complete = error == null && eventCount > 0 && (url == null || visitedUrls.contains(url));
+        return new CityResult(city, pageCount, eventCount, TimeUnit.NANOSECONDS.toMillis(waitNanos),
+                TimeUnit.NANOSECONDS.toMillis(fetchNanos), TimeUnit.NANOSECONDS.toMillis(processNanos), error, complete);
+    }
+
+    /**
+     * The absolute url of the next page of an agenda page (rel="next" link), or null on the last page
+     * */
+    public static String nextPageUrl(Document document) {
+        Element next = document.selectFirst("link[rel=next][href], a[rel=next][href]");
+        if (next == null) {
+            return null;
+        }
+        String nextUrl = next.absUrl("href");
+        return nextUrl.isEmpty() ? null : nextUrl;
+    }
+
+    /**
+     * The contents of the application/ld+json scripts of a page, one per event
+     * */
+    public static List<String> eventsJsonLD(Document document) {
+        List<String> jsonLD = new ArrayList<String>();
+        for (Element script : document.select("script[type=application/ld+json]")) {
+            jsonLD.add(script.data());
+        }
+        return jsonLD;
+    }
+}
@@ -0,0 +1,232 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.json.JsonValue;
+import org.apache.jena.atlas.json.io.JSONMaker;
+import org.apache.jena.atlas.json.io.parser.JSONParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A bulk enrollment of attendees to events, read from either
+ * - NDJSON: one {"eventURI": .., "attendeeURI": ..} object per line, read line by line; a malformed line is
+ *   recorded as INVALID and the others are still read, or
+ * - a matrix: {"eventURIs": [..], "attendeeURIs": [..]}, every attendee enrolled to every event.
+ * Pairs are grouped by event so all the attendees of an event are added with a single write,
+ * and the result of every pair is kept for the summary
+ * */
+public class AttendeeBatch {
+
+    public static final String ADDED = "ADDED";
+    public static final String DUPLICATE = "DUPLICATE";
+    public static final String INVALID = "INVALID";
+    public static final String FAILED = "FAILED";
+
+    /**
+     * One attendee - event pair of the request and what happened to it
+     * */
+    public static class Pair {
+        public final String eventURI;
+        public final String attendeeURI;
+        private String status;
+        private String error;
+
+        Pair(String eventURI, String attendeeURI) {
+            this.eventURI = eventURI;
+            this.attendeeURI = attendeeURI;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+    }
+
+    //a matrix starts with one of its keys, NDJSON lines with the keys of a pair
+    private static final Pattern MATRIX_START = Pattern.compile("^\\s*\\{\\s*\"(eventURIs|attendeeURIs)\"");
+    private static final int MATRIX_SNIFF_CHARS = 256;
+
+    private final List<Pair> pairs = new ArrayList<Pair>();
+    //attendees of each event, in request order
+    private final Map<String, Set<String>> attendeesByEvent = new LinkedHashMap<String, Set<String>>();
+    private final Map<String, List<Pair>> pairsByEvent = new HashMap<String, List<Pair>>();
+
+    /**
+     * Reads NDJSON or a matrix, told apart by how the input starts
+     * */
+    public static AttendeeBatch read(Reader input) throws IOException {
+        return read(input, null);
+    }
+
+    /**
+     * Reads NDJSON (application/x-ndjson) or a matrix (application/json); for any other or no contentType,
+     * input is read as a matrix only if it starts with a {"eventURIs" or {"attendeeURIs" object
+     * */
+    public static AttendeeBatch read(Reader input, String contentType) throws IOException {
+        AttendeeBatch batch = new AttendeeBatch();
+        BufferedReader reader = new BufferedReader(input);
+        //the start of the input, to tell a (possibly pretty printed) matrix from NDJSON
+        char[] start = new char[MATRIX_SNIFF_CHARS];
+        reader.mark(MATRIX_SNIFF_CHARS);
+        int startLength = 0;
+        int count;
+        while (startLength < start.length && (count = reader.read(start, startLength, start.length - startLength)) != -1) {
+            startLength += count;
+        }
+        reader.reset();
+
+        String firstLine = reader.readLine();
+        int lineNumber = 1;
+        while (firstLine != null && firstLine.isBlank()) {
+            firstLine = reader.readLine();
+            lineNumber++;
+        }
+        if (firstLine == null) {
+            return batch;
+        }
+
+        String mediaType = contentType == null ? "" : contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        boolean isMatrix = mediaType.equals("application/json")
+                || (!mediaType.endsWith("ndjson") && MATRIX_START.matcher(new String(start, 0, startLength)).find());
+        if (isMatrix) {
+            StringBuilder matrix = new StringBuilder(firstLine).append('\n');
+            String line;
+            while ((line = reader.readLine()) != null) {
+                matrix.append(line).append('\n');
+            }
+            JsonObject obj = parseObject(matrix.toString());
+            if (obj == null || !obj.hasKey("eventURIs") || !obj.hasKey("attendeeURIs")
+                    || !obj.get("eventURIs").isArray() || !obj.get("attendeeURIs").isArray()) {
+                throw new IllegalArgumentException("Expected a {\"eventURIs\": [..], \"attendeeURIs\": [..]} matrix");
+            }
+            for (JsonValue eventURI : obj.get("eventURIs").getAsArray()) {
+                for (JsonValue attendeeURI : obj.get("attendeeURIs").getAsArray()) {
+                    batch.add(stringValue(eventURI), stringValue(attendeeURI));
+                }
+            }
+            return batch;
+        }
+
+        batch.addLine(lineNumber, firstLine);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (!line.isBlank()) {
+                batch.addLine(lineNumber, line);
+            }
+        }
+        return batch;
+    }
+
+    private void addLine(int lineNumber, String json) {
+        JsonObject line = parseObject(json);
+        if (line == null) {
+            pairs.add(invalid(null, null, "line " + lineNumber + ": not a json object"));
+            return;
+        }
+        add(line.hasKey("eventURI") ? stringValue(line.get("eventURI")) : null, line.hasKey("attendeeURI") ? stringValue(line.get("attendeeURI")) : null);
+    }
+
+    /**
+     * Adds a pair, recording it as invalid (not an absolute iri) or duplicate instead of enrolling it
+     * */
+    public void add(String eventURI, String attendeeURI) {
+        if (!SparqlQueries.isAbsoluteIri(eventURI) || !SparqlQueries.isAbsoluteIri(attendeeURI)) {
+            pairs.add(invalid(eventURI, attendeeURI, "eventURI and attendeeURI must be absolute iris"));
+            return;
+        }
+        Pair pair = new Pair(eventURI, attendeeURI);
+        if (!attendeesByEvent.computeIfAbsent(eventURI, key -> new LinkedHashSet<String>()).add(attendeeURI)) {
+            pair.status = DUPLICATE;
+        } else {
+            pairsByEvent.computeIfAbsent(eventURI, key -> new ArrayList<Pair>()).add(pair);
+        }
+        pairs.add(pair);
+    }
+
+    /**
+     * The attendees to add to each event
+     * */
+    public Map<String, Set<String>> getAttendeesByEvent() {
+        return attendeesByEvent;
+    }
+
+    /**
+     * Records the result of the write of an event for all its pairs; error is null if the attendees were added
+     * */
+    public synchronized void setEventResult(String eventURI, String error) {
+        for (Pair pair : pairsByEvent.getOrDefault(eventURI, Collections.emptyList())) {
+            pair.status = error == null ? ADDED : FAILED;
+            pair.error = error;
+        }
+    }
+
+    public List<Pair> getPairs() {
+        return pairs;
+    }
+
+    /**
+     * The counts of each status and the result of every pair
+     * */
+    public synchronized JsonObject getSummary() {
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (String status : new String[]{ADDED, DUPLICATE, INVALID, FAILED}) {
+            counts.put(status, 0);
+        }
+        JsonArray results = new JsonArray();
+        for (Pair pair : pairs) {
+            counts.merge(pair.status, 1, Integer::sum);
+            JsonObject result = new JsonObject();
+            result.put("eventURI", pair.eventURI == null ? "" : pair.eventURI);
+            result.put("attendeeURI", pair.attendeeURI == null ? "" : pair.attendeeURI);
+            result.put("status", pair.status);
+            if (pair.error != null) {
+                result.put("error", pair.error);
+            }
+            results.add(result);
+        }
+
+        JsonObject summary = new JsonObject();
+        summary.put("pairs", pairs.size());
+        summary.put("events", attendeesByEvent.size());
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            summary.put(count.getKey().toLowerCase(Locale.ROOT), count.getValue());
+        }
+        summary.put("results", results);
+        return summary;
+    }
+
+    private static Pair invalid(String eventURI, String attendeeURI, String error) {
+        Pair pair = new Pair(eventURI, attendeeURI);
+        pair.status = INVALID;
+        pair.error = error;
+        return pair;
+    }
+
+    private static JsonObject parseObject(String json) {
+        try {
+            JSONMaker jm = new JSONMaker();
+            JSONParser.parseAny(new StringReader(json), jm);
+            return jm.jsonValue().isObject() ? jm.jsonValue().getAsObject() : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String stringValue(JsonValue value) {
+        return value != null && value.isString() ? value.getAsString().value() : null;
+    }
+}
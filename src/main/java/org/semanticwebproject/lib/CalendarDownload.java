@@ -0,0 +1,207 @@
+package org.semanticwebproject.lib;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * A conditional download of an ICS calendar into calendar.ics.
+ * Sends the ETag / Last-Modified validators of the previous download so an unchanged calendar costs a 304,
+ * accepts gzip, and exposes the response as a stream that is copied to disk while it is being read,
+ * so the calendar can be parsed straight from the network.
+ * The downloaded file only replaces calendar.ics on commit(), and the validators are only stored by storeValidators(),
+ * once the calendar was ingested without failures: a calendar whose ingest failed is downloaded and ingested again
+ * next time instead of being answered 304
+ * */
+public class CalendarDownload implements Closeable {
+
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private final String url;
+    private final HttpURLConnection connection;
+    private final boolean notModified;
+    private final Path partPath = Paths.get(CALENDAR_FILE_NAME + ".part");
+    private InputStream tee;
+    private InputStream body;
+    private OutputStream fileCopy;
+    private boolean committed;
+
+    private CalendarDownload(String url, HttpURLConnection connection, boolean notModified) {
+        this.url = url;
+        this.connection = connection;
+        this.notModified = notModified;
+    }
+
+    /**
+     * Sends the (conditional) request for the calendar at url
+     * */
+    public static CalendarDownload open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        //validators only apply while the file they describe is still there
+        Properties validators = loadValidators();
+        if (Files.exists(Paths.get(CALENDAR_FILE_NAME))) {
+            String eTag = validators.getProperty(url + ".etag");
+            String lastModified = validators.getProperty(url + ".last-modified");
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new CalendarDownload(url, connection, true);
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Calendar download failed with HTTP " + status + " for " + url);
+        }
+        return new CalendarDownload(url, connection, false);
+    }
+
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * The decompressed response body; everything read from it is also written to calendar.ics.part.
+     * Closing it does nothing (a reader wrapped around it in a try-with-resources may close it before commit()),
+     * the download closes the response itself on commit() or close()
+     * */
+    public InputStream body() throws IOException {
+        if (body == null) {
+            InputStream responseStream = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                responseStream = new GZIPInputStream(responseStream);
+            }
+            fileCopy = new BufferedOutputStream(Files.newOutputStream(partPath));
+            tee = new TeeInputStream(new BufferedInputStream(responseStream), fileCopy);
+            body = new FilterInputStream(tee) {
+                @Override
+                public void close() {
+                }
+            };
+        }
+        return body;
+    }
+
+    /**
+     * Reads whatever is left of the body and moves the downloaded file over calendar.ics.
+     * The validators of the previous download are dropped, as they no longer describe calendar.ics
+     * */
+    public void commit() throws IOException {
+        body().transferTo(OutputStream.nullOutputStream());
+        tee.close();
+        fileCopy.close();
+        Files.move(partPath, Paths.get(CALENDAR_FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+        saveValidators(null, null);
+    }
+
+    /**
+     * Stores the ETag / Last-Modified of the committed download, so the next download of the unchanged calendar is a 304.
+     * Called once the calendar was ingested without failures
+     * */
+    public void storeValidators() throws IOException {
+        if (!committed) {
+            throw new IllegalStateException("Calendar download of " + url + " not committed");
+        }
+        saveValidators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+    }
+
+    private void saveValidators(String eTag, String lastModified) throws IOException {
+        Properties validators = loadValidators();
+        validators.remove(url + ".etag");
+        validators.remove(url + ".last-modified");
+        if (eTag != null) {
+            validators.setProperty(url + ".etag", eTag);
+        }
+        if (lastModified != null) {
+            validators.setProperty(url + ".last-modified", lastModified);
+        }
+        try (OutputStream out = Files.newOutputStream(Paths.get(CALENDAR_VALIDATORS_FILE_NAME))) {
+            validators.store(out, "Validators of the last calendar download");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (tee != null && !committed) {
+                tee.close();
+                fileCopy.close();
+                Files.deleteIfExists(partPath);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static Properties loadValidators() throws IOException {
+        Properties validators = new Properties();
+        Path path = Paths.get(CALENDAR_VALIDATORS_FILE_NAME);
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                validators.load(in);
+            }
+        }
+        return validators;
+    }
+
+    /**
+     * Copies every byte read from the wrapped stream to a second output stream
+     * */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                copy.write(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //skipped bytes still have to reach the file copy
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int count = read(buffer, 0, buffer.length);
+            return Math.max(count, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
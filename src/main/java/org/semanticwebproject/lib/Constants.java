@@ -4,6 +4,10 @@ public class Constants {
     //UPLOADS
     public static final String LDP_DESTINATION = "remote";
     public static final String FUSEKI_DESTINATION = "fuseki";
+    //named graph a calendar is bulk loaded into on the fuseki destination
+    public static final String FUSEKI_CALENDAR_GRAPH = "https://mines-saint-etienne.cps2.com/mycalendar";
+    //triples per INSERT DATA request when bulk loading with sparql update
+    public static final int FUSEKI_INSERT_BATCH_SIZE = 50000;
 
     //SERVICES
     public static final String LOCAL_FUSEKI_SERVICE_URL = "http://localhost:3030/semweb/";
@@ -11,26 +15,95 @@ public class Constants {
     public static final String CONTAINER_NAME_URL = "mieventcontainer/";
     public static final String TERRITOIRE_CONTAINER_SERVICE_URL = "https://territoire.emse.fr/ldp/"+CONTAINER_NAME_URL;
     public static final String CONTAINER_NAME = "mez-ignas";
+    public static final String ALENTOOR_URL = "https://www.alentoor.fr/";
     public static final String AUTH_TOKEN = "Basic bGRwdXNlcjpMaW5rZWREYXRhSXNHcmVhdA==";
 
+    //CONVERSION
+    public static final int CONVERSION_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    public static final int CONVERSION_BATCH_SIZE = 1000;
+    //read calendar.ics with the streaming VEventLexer, falling back to ical4j when it cannot parse the file
+    public static final boolean USE_STREAMING_ICS_LEXER = true;
+    //zone used for ICS date-times without Z or TZID
+    public static final String CALENDAR_DEFAULT_TIMEZONE = "Europe/Paris";
+
+    //LOCAL STORE
+    //write every ingest to an embedded TDB2 store first, answer queries from it and replicate to the ldp in the background
+    public static final boolean USE_LOCAL_STORE = false;
+    public static final String LOCAL_STORE_DIRECTORY = "local-store";
+
+    //QUERIES
+    //answer date range queries from the EventIntervalIndex instead of the sparql endpoint, rebuilding it from a scan
+    //of the events of the ldp once it is older than this (to pick up writes made to the ldp by someone else)
+    public static final boolean USE_EVENT_INTERVAL_INDEX = true;
+    public static final long EVENT_INDEX_SCAN_MAX_AGE_MILLIS = 5 * 60 * 1000;
+    //results of the read endpoints kept in the QueryResultCache, and for how long
+    public static final int QUERY_CACHE_MAX_ENTRIES = 1000;
+    public static final long QUERY_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+
+    //LINKING
+    //events of the same location starting within this time of each other are compared for similarity
+    public static final long FUZZY_LINK_TIME_BUCKET_MILLIS = 60 * 60 * 1000;
+    //estimated jaccard similarity of title and description above which two events are linked with owl:sameAs
+    public static final double FUZZY_LINK_THRESHOLD = 0.5;
+    //MinHash signature length, split into bands of MINHASH_NUM_HASHES / MINHASH_BANDS rows for the candidate search
+    public static final int MINHASH_NUM_HASHES = 32;
+    public static final int MINHASH_BANDS = 8;
+    public static final int MINHASH_SHINGLE_SIZE = 3;
+
+    //HTTP
+    public static final int HTTP_MAX_CONNECTIONS = 20;
+    public static final int HTTP_MAX_CONNECTIONS_PER_ROUTE = 10;
+    public static final int HTTP_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int HTTP_SOCKET_TIMEOUT_MILLIS = 60000;
+    public static final int HTTP_VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+    public static final long HTTP_IDLE_CONNECTION_TIMEOUT_MILLIS = 30000;
+    //at most this many ldp requests in flight at once; conversion waits for a free slot
+    public static final int UPLOAD_CONCURRENCY = 8;
+    //attempts per ldp request on a 5xx response or a timeout, with exponential backoff in between
+    public static final int UPLOAD_MAX_ATTEMPTS = 4;
+    public static final long UPLOAD_INITIAL_BACKOFF_MILLIS = 500;
+    public static final long UPLOAD_MAX_BACKOFF_MILLIS = 8000;
+    //attempts of a conditional ldp update answered 412 (the resource changed since its ETag was read)
+    public static final int LDP_PRECONDITION_MAX_ATTEMPTS = 3;
+    //resources whose last ETag is kept for the If-Match of the next update
+    public static final int ETAG_CACHE_MAX_ENTRIES = 10000;
+    //an ingest removing more than this fraction of the events it tracks is taken for a bad read and removes nothing
+    public static final double PRUNE_MAX_FRACTION = 0.5;
+
+    //CRAWLING
+    //cities of a crawl fetched at once
+    public static final int CRAWL_THREADS = 16;
+    //politeness towards a crawled host: requests in flight at once, and requests started per second
+    public static final int CRAWL_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final int CRAWL_MAX_REQUESTS_PER_SECOND = 10;
+    //agenda pages followed per city
+    public static final int CRAWL_MAX_PAGES = 50;
+
     //COMMANDS
     public static final String DOWNLOAD_ICS_COMMAND = "DOWNLOAD";
     public static final String EXTRACT_COMMAND = "EXTRACT";
+    public static final String CRAWL_COMMAND = "CRAWL";
     public static final String READ_COMMAND = "READ";
     public static final String ADD_ATTENDEE_COMMAND = "ADD_ATTENDEE";
+    public static final String ADD_ATTENDEES_COMMAND = "ADD_ATTENDEES";
     public static final String GET_EVENTS_COMMAND = "GET_EVENTS";
     public static final String GET_NON_COURSE_EVENTS_COMMAND = "GET_NON_COURSE_EVENTS";
     public static final String LINK_COMMAND = "LINK_SAME_EVENTS";
+    public static final String LINK_ALL_COMMAND = "LINK_ALL_SAME_EVENTS";
+    public static final String LINK_SIMILAR_COMMAND = "LINK_SIMILAR_EVENTS";
 
     //FILES
     public static String CALENDAR_FILE_NAME = "calendar.ics";
     public static String CALENDAR_OUTPUT_TURTLE_FILE_NAME = "calender_output.ttl";
     public static String CALENDAR_OUTPUT_TURTLE_FILE_TEMP_NAME = "calender_output_temp";
-    public static String FETCHED_RESOURCE_TEMP_NAME = "fetched_resource_temp.ttl";
-    public static String FETCHED_JSON_LD_TEMP_NAME = "fetched_json_ld_temp";
     public static String SHACL_VALIDATION_SHAPE = "shacl_validation_shape.ttl";
     public static String SHACL_VALIDATION_SHAPE_CPS2_EVENT = "shacl_validation_shape_cps2_course.ttl";
     public static String SHACL_VALIDATION_REPORTS = "shacl_validation_reports.ttl";
+    public static String INGEST_MANIFEST_FILE_NAME = "ingest_manifest.tsv";
+    public static String ALENTOOR_MANIFEST_FILE_NAME = "alentoor_manifest.tsv";
+    public static String CALENDAR_VALIDATORS_FILE_NAME = "calendar_download_validators.properties";
+    public static String OUTBOX_FILE_NAME = "upload_outbox.log";
+    public static String EVENT_INDEX_FILE_NAME = "event_index.tsv";
 
 
 
@@ -38,6 +111,7 @@ public class Constants {
     public static String BEGIN = "BEGIN";
     public static String END = "END";
     public static String VEVENT = "VEVENT";
+    public static String VCALENDAR = "VCALENDAR";
     public static final String _DTSTAMP = "DTSTAMP";
     public static final String _DTSTART = "DTSTART";
     public static final String _DTEND = "DTEND";
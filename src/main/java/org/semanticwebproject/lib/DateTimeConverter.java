@@ -0,0 +1,103 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.datatypes.xsd.XSDDateTime;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Converts ICS date-time values (eg 20221215T094500Z, 20221215T094500 with a TZID, or 20221215) to XSDDateTime.
+ * The compact form is parsed digit by digit with java.time, and results are cached since the same stamps
+ * (DTSTAMP, CREATED, LAST-MODIFIED) repeat across most events of a calendar
+ * */
+public class DateTimeConverter {
+
+    private static final int MAX_CACHE_SIZE = 10000;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final ZoneId DEFAULT_ZONE = ZoneId.of(CALENDAR_DEFAULT_TIMEZONE);
+
+    private static final Map<String, XSDDateTime> cache = new ConcurrentHashMap<String, XSDDateTime>();
+
+    /**
+     * Converts a date-time value; tzid is the TZID parameter of the property or null.
+     * UTC values (ending in Z) are taken as is, values with a TZID are read in that zone and
+     * floating values in CALENDAR_DEFAULT_TIMEZONE
+     * */
+    public static XSDDateTime toXSDDateTime(String value, String tzid) {
+        String key = tzid == null ? value : tzid + ':' + value;
+        XSDDateTime dateTime = cache.get(key);
+        if (dateTime == null) {
+            dateTime = convert(value, tzid);
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(key, dateTime);
+        }
+        return dateTime;
+    }
+
+    private static XSDDateTime convert(String value, String tzid) {
+        if (value.length() != 8 && (value.length() < 15 || value.charAt(8) != 'T')) {
+            throw new DateTimeException("Invalid ICS date-time: " + value);
+        }
+
+        int year = digits(value, 0, 4);
+        int month = digits(value, 4, 6);
+        int day = digits(value, 6, 8);
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        if (value.length() > 8) {
+            hour = digits(value, 9, 11);
+            minute = digits(value, 11, 13);
+            second = digits(value, 13, 15);
+        }
+        LocalDateTime localDateTime = LocalDateTime.of(year, month, day, hour, minute, second);
+
+        long epochMillis;
+        if (value.length() == 16 && value.charAt(15) == 'Z') {
+            epochMillis = localDateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+        } else {
+            epochMillis = localDateTime.atZone(zoneOf(tzid)).toInstant().toEpochMilli();
+        }
+
+        GregorianCalendar calendar = new GregorianCalendar(UTC);
+        calendar.setTimeInMillis(epochMillis);
+        return new XSDDateTime(calendar);
+    }
+
+    /**
+     * Resolves a TZID, using the default zone for floating times and for TZIDs java.time does not know
+     * (eg custom VTIMEZONE names)
+     * */
+    private static ZoneId zoneOf(String tzid) {
+        if (tzid == null) {
+            return DEFAULT_ZONE;
+        }
+        try {
+            return ZoneId.of(tzid);
+        } catch (DateTimeException e) {
+            return DEFAULT_ZONE;
+        }
+    }
+
+    private static int digits(String value, int start, int end) {
+        int number = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new DateTimeException("Invalid ICS date-time: " + value);
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
@@ -0,0 +1,314 @@
+package org.semanticwebproject.lib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * In-memory index of the start and end of every event, answering "which events overlap [from, to)"
+ * without a sparql round trip. It holds the whole ldp only once rebuilt from a scan of it (see rebuild), kept up to
+ * date in between by the events this process ingests or deletes; until then it must not answer queries. Events are kept sorted by start, with a max-end segment tree on top:
+ * a query binary searches the events starting before `to`, then only descends into the parts of the tree
+ * holding an event that ends after `from`, so it costs O(log n + k) for k results.
+ * The sorted arrays are rebuilt on the first query after a change. The index is saved in EVENT_INDEX_FILE_NAME
+ * (tab separated: iri, start millis, end millis)
+ * */
+public class EventIntervalIndex {
+
+    private static EventIntervalIndex instance;
+
+    private final Path path;
+    private final Map<String, long[]> intervals = new HashMap<String, long[]>();
+    private Snapshot snapshot;
+    //held for the whole of a rebuild, so scans do not overlap
+    private final Object scanLock = new Object();
+    //System.currentTimeMillis() when the last complete scan started, 0 if there was none
+    private long scannedAt;
+    //while a scan runs, the events put (or removed, null) since it started, applied again over its result
+    private Map<String, long[]> changedDuringScan;
+
+    /**
+     * A scan of the store, adding the [start, end] in millis of every event to intervals
+     * */
+    public interface Scan {
+        void run(Map<String, long[]> intervals) throws Exception;
+    }
+
+    /**
+     * Events sorted by start, with maxEnd[node] the latest end in the node's range of a segment tree over them
+     * */
+    private static final class Snapshot {
+        final String[] iris;
+        final long[] starts;
+        final long[] ends;
+        final long[] maxEnd;
+
+        Snapshot(Map<String, long[]> intervals) {
+            List<Map.Entry<String, long[]>> sorted = new ArrayList<Map.Entry<String, long[]>>(intervals.entrySet());
+            sorted.sort(Comparator.comparingLong((Map.Entry<String, long[]> entry) -> entry.getValue()[0]).thenComparing(Map.Entry::getKey));
+            int size = sorted.size();
+            iris = new String[size];
+            starts = new long[size];
+            ends = new long[size];
+            for (int i = 0; i < size; i++) {
+                iris[i] = sorted.get(i).getKey();
+                starts[i] = sorted.get(i).getValue()[0];
+                ends[i] = sorted.get(i).getValue()[1];
+            }
+            maxEnd = new long[Math.max(1, 4 * size)];
+            if (size > 0) {
+                build(1, 0, size - 1);
+            }
+        }
+
+        private long build(int node, int low, int high) {
+            if (low == high) {
+                return maxEnd[node] = ends[low];
+            }
+            int middle = (low + high) >>> 1;
+            return maxEnd[node] = Math.max(build(2 * node, low, middle), build(2 * node + 1, middle + 1, high));
+        }
+
+        /**
+         * Adds the events among [low, min(high, lastIndex)] of the node that end after from, in order, until there are maxResults
+         */
+        private void collect(int node, int low, int high, int lastIndex, long from, int maxResults, List<String> results) {
+            if (low > lastIndex || maxEnd[node] <= from || results.size() >= maxResults) {
+                return;
+            }
+            if (low == high) {
+                results.add(iris[low]);
+                return;
+            }
+            int middle = (low + high) >>> 1;
+            collect(2 * node, low, middle, lastIndex, from, maxResults, results);
+            collect(2 * node + 1, middle + 1, high, lastIndex, from, maxResults, results);
+        }
+
+        List<String> overlapping(long from, long to, ResultPage page) {
+            List<String> results = new ArrayList<String>();
+            //events starting before to, stopping at the end of the page
+            int startingBefore = lowerBound(starts, to);
+            int maxResults = (int) Math.min((long) page.getOffset() + page.getLimit(), Integer.MAX_VALUE);
+            if (startingBefore > 0) {
+                collect(1, 0, iris.length - 1, startingBefore - 1, from, maxResults, results);
+            }
+            return page.slice(results);
+        }
+
+        private static int lowerBound(long[] values, long key) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private EventIntervalIndex(Path path) {
+        this.path = path;
+    }
+
+    public static synchronized EventIntervalIndex get() {
+        if (instance == null) {
+            try {
+                instance = load(EVENT_INDEX_FILE_NAME);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the index saved at fileName, or returns an empty index if the file does not exist yet
+     * */
+    public static EventIntervalIndex load(String fileName) throws IOException {
+        EventIntervalIndex index = new EventIntervalIndex(Paths.get(fileName));
+        if (Files.exists(index.path)) {
+            try (BufferedReader reader = Files.newBufferedReader(index.path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == 3) {
+                        index.intervals.put(fields[0], new long[]{Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    public synchronized void save() throws IOException {
+        Path tempPath = Paths.get(path + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, long[]> entry : intervals.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue()[0] + "\t" + entry.getValue()[1]);
+                writer.newLine();
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds or moves an event, given its start and end as xsd date / dateTime lexical forms.
+     * Returns false (and leaves the index unchanged) when either cannot be parsed
+     * */
+    public boolean put(String resourceIRI, String startDate, String endDate) {
+        Long start = toEpochMillis(startDate);
+        Long end = toEpochMillis(endDate);
+        if (start == null || end == null) {
+            return false;
+        }
+        put(resourceIRI, start, Math.max(start, end));
+        return true;
+    }
+
+    public synchronized void put(String resourceIRI, long start, long end) {
+        intervals.put(resourceIRI, new long[]{start, end});
+        if (changedDuringScan != null) {
+            changedDuringScan.put(resourceIRI, new long[]{start, end});
+        }
+        snapshot = null;
+    }
+
+    /**
+     * The [start, end] of the event in millis, or null if it is not indexed
+     * */
+    public synchronized long[] getInterval(String resourceIRI) {
+        long[] interval = intervals.get(resourceIRI);
+        return interval == null ? null : interval.clone();
+    }
+
+    public synchronized void remove(String resourceIRI) {
+        if (changedDuringScan != null) {
+            changedDuringScan.put(resourceIRI, null);
+        }
+        if (intervals.remove(resourceIRI) != null) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Whether the index was rebuilt from a complete scan less than maxAgeMillis ago
+     * */
+    public synchronized boolean isScannedWithin(long maxAgeMillis) {
+        return scannedAt > 0 && System.currentTimeMillis() - scannedAt < maxAgeMillis;
+    }
+
+    /**
+     * Replaces the events of the index with those of a scan, unless it was already scanned less than maxAgeMillis ago.
+     * The events put or removed while the scan runs are applied again over its result. If the scan fails
+     * the index is left as it was. Returns whether the index was rebuilt
+     * */
+    public boolean rebuild(long maxAgeMillis, Scan scan) throws Exception {
+        synchronized (scanLock) {
+            long startedAt;
+            synchronized (this) {
+                if (isScannedWithin(maxAgeMillis)) {
+                    return false;
+                }
+                startedAt = System.currentTimeMillis();
+                changedDuringScan = new HashMap<String, long[]>();
+            }
+            Map<String, long[]> scanned = new HashMap<String, long[]>();
+            try {
+                scan.run(scanned);
+            } catch (Exception e) {
+                synchronized (this) {
+                    changedDuringScan = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                intervals.clear();
+                intervals.putAll(scanned);
+                for (Map.Entry<String, long[]> change : changedDuringScan.entrySet()) {
+                    if (change.getValue() == null) {
+                        intervals.remove(change.getKey());
+                    } else {
+                        intervals.put(change.getKey(), change.getValue());
+                    }
+                }
+                changedDuringScan = null;
+                snapshot = null;
+                scannedAt = startedAt;
+            }
+            return true;
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return intervals.isEmpty();
+    }
+
+    public synchronized int size() {
+        return intervals.size();
+    }
+
+    /**
+     * The iris of the events overlapping [from, to) (ie starting before to and ending after from), sorted by start
+     * */
+    public List<String> overlapping(long from, long to) {
+        return overlapping(from, to, ResultPage.ALL);
+    }
+
+    /**
+     * A page of the iris of the events overlapping [from, to), sorted by start. The search stops at the end of the page
+     * */
+    public List<String> overlapping(long from, long to, ResultPage page) {
+        Snapshot current;
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = new Snapshot(intervals);
+            }
+            current = snapshot;
+        }
+        return current.overlapping(from, to, page);
+    }
+
+    /**
+     * Parses an xsd dateTime (with or without offset, taken as UTC without) or an xsd date (its start, UTC)
+     * */
+    public static Long toEpochMillis(String lexicalForm) {
+        if (lexicalForm == null) {
+            return null;
+        }
+        String value = lexicalForm.trim();
+        try {
+            if (value.length() <= 10) {
+                return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            }
+            if (value.endsWith("Z") || value.lastIndexOf('+') > 10 || value.lastIndexOf('-') > 10) {
+                return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(value).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.semanticwebproject.lib;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Loads a whole converted calendar into one named graph of a SPARQL store (eg the local Fuseki) in bulk,
+ * instead of one http request per event.
+ * GSP mode streams every added model as N-Triples into a single Graph Store Protocol request
+ * (PUT to replace the graph, POST to add to it) that is sent while the calendar is still being converted.
+ * UPDATE mode buffers triples and sends them as INSERT DATA requests of FUSEKI_INSERT_BATCH_SIZE triples,
+ * after dropping the graph first when replacing it
+ * */
+public class FusekiBulkLoader implements Closeable {
+
+    public enum Mode { GSP, UPDATE }
+
+    private final String serviceUrl;
+    private final String graphIRI;
+    private final Mode mode;
+    private long tripleCount;
+
+    //GSP: the request body is piped from add() to the thread executing the request
+    private ExecutorService requestExecutor;
+    private HttpEntityEnclosingRequestBase gspHttpRequest;
+    private Future<Void> gspRequest;
+    private PipedOutputStream gspPipe;
+    private OutputStream gspBody;
+    private boolean finished;
+
+    //UPDATE: triples waiting for the next INSERT DATA
+    private Model pendingTriples;
+
+    private FusekiBulkLoader(String serviceUrl, String graphIRI, Mode mode) {
+        this.serviceUrl = serviceUrl.endsWith("/") ? serviceUrl : serviceUrl + "/";
+        this.graphIRI = graphIRI;
+        this.mode = mode;
+    }
+
+    /**
+     * Starts a bulk load into graphIRI of the dataset at serviceUrl, replacing the current content of the graph
+     * or adding to it
+     * */
+    public static FusekiBulkLoader open(String serviceUrl, String graphIRI, Mode mode, boolean replace) throws IOException {
+        FusekiBulkLoader loader = new FusekiBulkLoader(serviceUrl, graphIRI, mode);
+        if (mode == Mode.GSP) {
+            loader.startGraphStoreRequest(replace);
+        } else {
+            loader.pendingTriples = ModelFactory.createDefaultModel();
+            if (replace) {
+                loader.sendUpdate("DROP SILENT GRAPH <" + graphIRI + ">");
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Adds the triples of a model to the load
+     * */
+    public void add(Model model) throws IOException {
+        tripleCount += model.size();
+        if (mode == Mode.GSP) {
+            try {
+                RDFDataMgr.write(gspBody, model, RDFFormat.NTRIPLES_UTF8);
+            } catch (RuntimeException e) {
+                //jena wraps the IOException of the pipe
+                throw withRequestFailure(e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e));
+            }
+        } else {
+            pendingTriples.add(model);
+            if (pendingTriples.size() >= FUSEKI_INSERT_BATCH_SIZE) {
+                flushInsertData();
+            }
+        }
+    }
+
+    /**
+     * Sends whatever is still buffered and waits for the store to acknowledge the load, returning the number of triples sent
+     * */
+    public long finish() throws IOException {
+        if (mode == Mode.GSP) {
+            try {
+                gspBody.close();
+            } catch (IOException e) {
+                throw withRequestFailure(e);
+            }
+            try {
+                gspRequest.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the graph store");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            finished = true;
+        } else if (!pendingTriples.isEmpty()) {
+            flushInsertData();
+        }
+        return tripleCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (requestExecutor != null) {
+            //closing the body ends it like a complete one (a well formed chunked body of whole N-Triples lines),
+            //so an unfinished load aborts the request first, or the store would replace the graph with part of the calendar
+            if (!finished) {
+                gspHttpRequest.abort();
+                gspPipe.close();
+            }
+            requestExecutor.shutdownNow();
+        }
+    }
+
+    private void startGraphStoreRequest(boolean replace) throws IOException {
+        String url = serviceUrl + "data?graph=" + URLEncoder.encode(graphIRI, StandardCharsets.UTF_8);
+        HttpEntityEnclosingRequestBase request = replace ? new HttpPut(url) : new HttpPost(url);
+
+        PipedInputStream bodyIn = new PipedInputStream(64 * 1024);
+        gspPipe = new PipedOutputStream(bodyIn);
+        gspBody = new BufferedOutputStream(gspPipe, 64 * 1024);
+        //length -1: sent with chunked transfer encoding as it is produced
+        request.setEntity(new InputStreamEntity(bodyIn, -1, ContentType.create("application/n-triples", StandardCharsets.UTF_8)));
+        gspHttpRequest = request;
+
+        requestExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fuseki-bulk-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        gspRequest = requestExecutor.submit(() -> {
+            try {
+                execute(request);
+            } finally {
+                bodyIn.close();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * A failed request closes the pipe, so the writer only sees "Pipe closed": adds the failure of the request
+     * (status or exception) to the writer's error
+     * */
+    private IOException withRequestFailure(IOException writerError) {
+        try {
+            gspRequest.get(HTTP_SOCKET_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            writerError.addSuppressed(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            //the request is still running, the writer failed on its own
+        }
+        return writerError;
+    }
+
+    private void flushInsertData() throws IOException {
+        StringWriter triples = new StringWriter();
+        RDFDataMgr.write(triples, pendingTriples, RDFFormat.NTRIPLES_UTF8);
+        sendUpdate("INSERT DATA { GRAPH <" + graphIRI + "> {\n" + triples + "} }");
+        pendingTriples = ModelFactory.createDefaultModel();
+    }
+
+    private void sendUpdate(String update) throws IOException {
+        HttpPost post = new HttpPost(serviceUrl + "update");
+        post.setEntity(new StringEntity(update, ContentType.create("application/sparql-update", StandardCharsets.UTF_8)));
+        execute(post);
+    }
+
+    private static void execute(HttpEntityEnclosingRequestBase request) throws IOException {
+        try (CloseableHttpResponse response = HttpClientPool.get().execute(request)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            String responseBody = response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : "";
+            if (statusCode >= 300) {
+                throw new IOException("HTTP " + statusCode + " from " + request.getURI() + ": " + responseBody);
+            }
+        }
+    }
+}
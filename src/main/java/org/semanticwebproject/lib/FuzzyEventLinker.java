@@ -0,0 +1,138 @@
+package org.semanticwebproject.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Finds events describing the same happening although their times or titles differ slightly
+ * (eg the same talk in the CPS2 calendar and on alentoor).
+ * Events are first grouped into blocks by resolved location and FUZZY_LINK_TIME_BUCKET_MILLIS time bucket,
+ * and only events of a block and of the next bucket at the same location are compared, so the work grows with
+ * the number of events rather than the number of pairs. Within a block, candidate pairs are the events whose
+ * MinHash signatures (of their title and description) agree on a whole band (locality sensitive hashing),
+ * and a candidate is kept when its estimated similarity reaches the threshold
+ * */
+public class FuzzyEventLinker {
+
+    private static final class Candidate {
+        final String resourceIRI;
+        final long start;
+        final int[] signature;
+
+        Candidate(String resourceIRI, long start, int[] signature) {
+            this.resourceIRI = resourceIRI;
+            this.start = start;
+            this.signature = signature;
+        }
+    }
+
+    private final MinHash minHash = new MinHash(MINHASH_NUM_HASHES, MINHASH_SHINGLE_SIZE, 42);
+    private final double threshold;
+    private final Map<String, List<Candidate>> blocks = new HashMap<String, List<Candidate>>();
+    private int eventCount;
+    private long comparisonCount;
+
+    public FuzzyEventLinker(double threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Invalid similarity threshold: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Adds an event; locationKey is its resolved location (see locationKey), text its title and description.
+     * Events without text cannot be compared and are left out
+     * */
+    public void add(String resourceIRI, long start, String locationKey, String text) {
+        int[] signature = minHash.signature(text);
+        if (signature == null) {
+            return;
+        }
+        blocks.computeIfAbsent(blockKey(locationKey, Math.floorDiv(start, FUZZY_LINK_TIME_BUCKET_MILLIS)), key -> new ArrayList<Candidate>())
+                .add(new Candidate(resourceIRI, start, signature));
+        eventCount++;
+    }
+
+    /**
+     * The location an event is blocked on: its iri, or the normalized name of a place without iri
+     * */
+    public static String locationKey(String locationIRI, String locationName) {
+        if (locationName != null && !locationName.isBlank()) {
+            return MinHash.normalize(locationName);
+        }
+        return locationIRI == null ? "" : locationIRI;
+    }
+
+    /**
+     * The pairs of similar events, each pair once
+     * */
+    public List<String[]> findPairs() {
+        List<String[]> pairs = new ArrayList<String[]>();
+        for (Map.Entry<String, List<Candidate>> block : blocks.entrySet()) {
+            String[] key = block.getKey().split("\t", -1);
+            List<Candidate> nextBucket = blocks.getOrDefault(blockKey(key[0], Long.parseLong(key[1]) + 1), Collections.emptyList());
+            findPairs(block.getValue(), nextBucket, pairs);
+        }
+        return pairs;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public long getComparisonCount() {
+        return comparisonCount;
+    }
+
+    /**
+     * Pairs among the events of a bucket, and between them and the events of the next bucket
+     * (pairs within the next bucket are found with its own block)
+     * */
+    private void findPairs(List<Candidate> bucket, List<Candidate> nextBucket, List<String[]> pairs) {
+        List<Candidate> events = new ArrayList<Candidate>(bucket.size() + nextBucket.size());
+        events.addAll(bucket);
+        events.addAll(nextBucket);
+        int bucketSize = bucket.size();
+        int rowsPerBand = MINHASH_NUM_HASHES / MINHASH_BANDS;
+
+        //a pair agreeing on several bands is checked once
+        Map<Long, Boolean> checked = new HashMap<Long, Boolean>();
+        for (int band = 0; band < MINHASH_BANDS; band++) {
+            Map<Integer, List<Integer>> bandBuckets = new HashMap<Integer, List<Integer>>();
+            for (int i = 0; i < events.size(); i++) {
+                int[] signature = events.get(i).signature;
+                int bandHash = Arrays.hashCode(Arrays.copyOfRange(signature, band * rowsPerBand, (band + 1) * rowsPerBand));
+                bandBuckets.computeIfAbsent(bandHash, hash -> new ArrayList<Integer>()).add(i);
+            }
+            for (List<Integer> sameBand : bandBuckets.values()) {
+                for (int first = 0; first < sameBand.size(); first++) {
+                    int i = sameBand.get(first);
+                    for (int second = first + 1; second < sameBand.size(); second++) {
+                        int j = sameBand.get(second);
+                        //indexes are increasing, so i < j; skip pairs that are both in the next bucket
+                        if (i >= bucketSize || checked.putIfAbsent(((long) i << 32) | j, Boolean.TRUE) != null) {
+                            continue;
+                        }
+                        comparisonCount++;
+                        Candidate a = events.get(i);
+                        Candidate b = events.get(j);
+                        if (Math.abs(a.start - b.start) <= FUZZY_LINK_TIME_BUCKET_MILLIS
+                                && MinHash.similarity(a.signature, b.signature) >= threshold) {
+                            pairs.add(new String[]{a.resourceIRI, b.resourceIRI});
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static String blockKey(String locationKey, long bucket) {
+        return locationKey + "\t" + bucket;
+    }
+}
@@ -1,14 +1,21 @@
 package org.semanticwebproject.lib;
 
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
 
 import java.io.*;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFFormat;
@@ -17,7 +24,6 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 import org.topbraid.jenax.util.JenaUtil;
-import org.topbraid.shacl.validation.ValidationUtil;
 import org.topbraid.shacl.vocabulary.SH;
 
 import static org.semanticwebproject.lib.Constants.*;
@@ -28,75 +34,50 @@ public class Helpers {
     // Why This Failure marker
     private static final Marker WTF_MARKER = MarkerFactory.getMarker("WTF");
 
-    public static void downloadICS(String urlString) throws IOException {
+    /**
+     * Downloads the calendar at urlString to calendar.ics unless it has not changed since the last download
+     * returns false when the server reported the calendar as not modified
+     * */
+    public static boolean downloadICS(String urlString) throws IOException {
 
-        try {
-            URL url = new URL(urlString);
-            BufferedInputStream bis = new BufferedInputStream(url.openStream());
-
-            FileOutputStream fis = new FileOutputStream(CALENDAR_FILE_NAME);
-            byte[] buffer = new byte[1024];
-            int count = 0;
-            while ((count = bis.read(buffer, 0, 1024)) != -1) {
-                fis.write(buffer, 0, count);
+        try (CalendarDownload download = CalendarDownload.open(urlString)) {
+            if (download.isNotModified()) {
+                System.out.println("Calendar not modified since last download");
+                return false;
             }
-            fis.close();
-            bis.close();
+            download.commit();
 
             System.out.println("File downloaded to root of project folder");
             System.out.println("File name: " + CALENDAR_FILE_NAME);
-        } catch (Exception exception) {
+            return true;
+        } catch (IOException exception) {
             System.out.println("An error occurred while downloading file");
+            throw exception;
         }
     }
 
+    /**
+     * Converts an ICS location to a Territoire room IRI under prefix, memoized per raw location (see LocationResolver)
+     * */
     public static String convertLocationToTerritoireIRI(String locationPassed, String prefix) {
-        String[] splitLocations = locationPassed.split(",");
-        String location = splitLocations.length >1 ? splitLocations[1]: splitLocations[0];
-        String[] splitLocation = location.split("\\s+");
-        if (Arrays.stream(splitLocation).anyMatch(str -> str.toLowerCase().equals("emse")) && Arrays.stream(splitLocation).anyMatch(str -> str.toLowerCase().equals("fauriel"))) {
-            //convert to Territoire IRI
-            String roomName = splitLocation[splitLocation.length - 1];
-
-            switch (roomName.toLowerCase().substring(0, 2)) {
-                case "s1" -> location = prefix + "1ET/" + roomName.substring(1).replace(".", "");
-                case "s2" -> location = prefix + "2ET/" + roomName.substring(1).replace(".", "");
-                case "s3" -> location = prefix + "3ET/" + roomName.substring(1).replace(".", "");
-                case "s4" -> location = prefix + "4ET/" + roomName.substring(1).replace(".", "");
-                case "s5" -> location = prefix + "5ET/" + roomName.substring(1).replace(".", "");
-                case "s6" -> location = prefix + "6ET/" + roomName.substring(1).replace(".", "");
-                default -> {
-                    String roomNumber= location.replaceAll("[^0-9]", "");
-                    switch (roomNumber.substring(0,1)){
-                        case "1" -> location =  prefix + "1ET/" + roomNumber;
-                        case "2" -> location =  prefix + "2ET/" + roomNumber;
-                        case "3" -> location =  prefix + "3ET/" + roomNumber;
-                        case "4" -> location =  prefix + "4ET/" + roomNumber;
-                        case "5" -> location =  prefix + "5ET/" + roomNumber;
-                        case "6" -> location =  prefix + "6ET/" + roomNumber;
-                    }
-                }
-            }
-
-        }else{
-            if (location.toLowerCase().contains("amphi") || location.toLowerCase().contains("salle")){
-                String roomNumber= location.replaceAll("[^0-9]", "");
-                switch (roomNumber.substring(0,1)){
-                    case "1" -> location =  prefix + "1ET/" + roomNumber;
-                    case "2" -> location =  prefix + "2ET/" + roomNumber;
-                    case "3" -> location =  prefix + "3ET/" + roomNumber;
-                    case "4" -> location =  prefix + "4ET/" + roomNumber;
-                    case "5" -> location =  prefix + "5ET/" + roomNumber;
-                    case "6" -> location =  prefix + "6ET/" + roomNumber;
-                }
-            }else{
-                //other location eg UJM
-                location = "UJM-" + location.replaceAll("[^0-9]", "");
+        return LocationResolver.forPrefix(prefix).resolve(locationPassed);
+    }
 
+    /**
+     * Returns the hex encoded SHA-256 digest of a string
+     * */
+    public static String sha256Hex(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
             }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return location;
-}
+    }
 
     public static void writeStringToFile(String content, String fileName) throws IOException {
         FileWriter fileWriter = new FileWriter(fileName);
@@ -117,37 +98,46 @@ public class Helpers {
         writer.close();
     }
 
-    public static boolean validateWithSHACL(String fileContent, Boolean isCPS2Event) {
-        boolean conforms = false;
-        try {
-            String shape;
-
-            if (isCPS2Event) {
-                shape = SHACL_VALIDATION_SHAPE_CPS2_EVENT;
-
-            } else {
-                shape = SHACL_VALIDATION_SHAPE;
-            }
+    public static String modelToTurtle(Model model) {
+        StringWriter stringWriter = new StringWriter();
+        model.write(stringWriter, "Turtle");
+        return stringWriter.toString();
+    }
 
+    public static Model turtleToModel(String turtle) {
+        Model model = ModelFactory.createDefaultModel();
+        model.read(new StringReader(turtle), null, "Turtle");
+        return model;
+    }
 
-            Model dataModel = JenaUtil.createDefaultModel();
-            dataModel.read(fileContent);
-            Model shapeModel = JenaUtil.createDefaultModel();
-            shapeModel.read(shape);
+    public static boolean validateWithSHACL(String fileContent, Boolean isCPS2Event) {
+        Model dataModel = JenaUtil.createDefaultModel();
+        dataModel.read(fileContent);
+        return validateWithSHACL(dataModel, fileContent, isCPS2Event);
+    }
 
-            Resource reportResource = ValidationUtil.validateModel(dataModel, shapeModel, true);
+    /**
+     * Validates an in-memory model against the generic shacl shape, or for CPS2 events against the generic and
+     * CPS2 shapes merged into one (compiled once, see ShapeValidator),
+     * writing the report to shacl-validation-reports/$reportName when the model does not conform
+     * */
+    public static boolean validateWithSHACL(Model dataModel, String reportName, Boolean isCPS2Event) {
+        boolean conforms = false;
+        try {
+            Resource reportResource = shapeValidator(isCPS2Event).validate(dataModel);
             conforms = reportResource.getProperty(SH.conforms).getBoolean();
             logger.trace("Conforms = " + conforms);
 
             if (!conforms) {
 //                String report = path.toFile().getAbsolutePath() + SHACL_VALIDATION_REPORTS;
 //                File reportFile = new File(SHACL_VALIDATION_REPORTS);
-                File reportFile = new File("./shacl-validation-reports/"+fileContent);
+                File reportFile = new File("./shacl-validation-reports/" + (reportName.endsWith(".ttl") ? reportName : reportName + ".ttl"));
 
                 reportFile.createNewFile();
                 OutputStream reportOutputStream = new FileOutputStream(reportFile);
 
                 RDFDataMgr.write(reportOutputStream, reportResource.getModel(), RDFFormat.TTL);
+                reportOutputStream.close();
             }
 
         } catch (Throwable t) {
@@ -155,4 +145,37 @@ public class Helpers {
         }
         return conforms;
     }
+
+    /**
+     * Validates a graph holding many events in a single engine run and groups the validation results by focus node,
+     * so each event can be accepted or rejected on its own. Events without an entry in the returned map conform.
+     * The full report is written to shacl-validation-reports/$reportName when anything does not conform
+     * */
+    public static Map<String, List<Resource>> validateEventsWithSHACL(Model dataModel, String reportName, Boolean isCPS2Event) throws Exception {
+        Resource reportResource = shapeValidator(isCPS2Event).validate(dataModel);
+
+        Map<String, List<Resource>> resultsByFocusNode = new HashMap<String, List<Resource>>();
+        StmtIterator results = reportResource.listProperties(SH.result);
+        while (results.hasNext()) {
+            Resource result = results.next().getResource();
+            Statement focusNode = result.getProperty(SH.focusNode);
+            String focusNodeName = focusNode == null ? "" : focusNode.getObject().toString();
+            resultsByFocusNode.computeIfAbsent(focusNodeName, key -> new ArrayList<Resource>()).add(result);
+        }
+
+        if (!resultsByFocusNode.isEmpty()) {
+            File reportFile = new File("./shacl-validation-reports/" + reportName + ".ttl");
+            reportFile.createNewFile();
+            try (OutputStream reportOutputStream = new FileOutputStream(reportFile)) {
+                RDFDataMgr.write(reportOutputStream, reportResource.getModel(), RDFFormat.TTL);
+            }
+        }
+        return resultsByFocusNode;
+    }
+
+    private static ShapeValidator shapeValidator(Boolean isCPS2Event) {
+        return isCPS2Event
+                ? ShapeValidator.forShapes(SHACL_VALIDATION_SHAPE, SHACL_VALIDATION_SHAPE_CPS2_EVENT)
+                : ShapeValidator.forShapes(SHACL_VALIDATION_SHAPE);
+    }
 }
@@ -0,0 +1,63 @@
+package org.semanticwebproject.lib;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * The single HTTP client used for all LDP and SPARQL requests.
+ * Connections are pooled and kept alive between requests (limits and timeouts are set in Constants),
+ * so consecutive requests to territoire reuse a few open connections instead of a new TCP+TLS handshake each.
+ * Callers must close every response (or consume its entity) to hand the connection back to the pool
+ * */
+public class HttpClientPool {
+
+    private static final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    private static final CloseableHttpClient httpClient;
+
+    static {
+        connectionManager.setMaxTotal(HTTP_MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(HTTP_MAX_CONNECTIONS_PER_ROUTE);
+        connectionManager.setValidateAfterInactivity(HTTP_VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(HTTP_CONNECT_TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(HTTP_CONNECT_TIMEOUT_MILLIS)
+                .setSocketTimeout(HTTP_SOCKET_TIMEOUT_MILLIS)
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(HTTP_IDLE_CONNECTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                httpClient.close();
+            } catch (IOException ignored) {
+            }
+        }));
+    }
+
+    public static CloseableHttpClient get() {
+        return httpClient;
+    }
+
+    /**
+     * Connections currently leased, available (idle, kept alive) and pending across the pool
+     * */
+    public static PoolStats getStats() {
+        return connectionManager.getTotalStats();
+    }
+}
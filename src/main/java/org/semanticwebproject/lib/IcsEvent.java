@@ -0,0 +1,83 @@
+package org.semanticwebproject.lib;
+
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A calendar component reduced to what the RDF conversion needs: its name and its properties in file order.
+ * Produced either by the streaming VEventLexer or from an ical4j component
+ * */
+public class IcsEvent {
+
+    public static class IcsProperty {
+        public final String name;
+        public final String value;
+        public final Map<String, String> parameters;
+
+        public IcsProperty(String name, String value, Map<String, String> parameters) {
+            this.name = name;
+            this.value = value;
+            this.parameters = parameters;
+        }
+
+        public String getParameter(String parameterName) {
+            return parameters.get(parameterName);
+        }
+    }
+
+    private final String name;
+    private final List<IcsProperty> properties;
+
+    public IcsEvent(String name, List<IcsProperty> properties) {
+        this.name = name;
+        this.properties = properties;
+    }
+
+    /**
+     * Copies an ical4j component; parameters are read back from the property's content line
+     * */
+    public static IcsEvent fromComponent(CalendarComponent component) {
+        List<IcsProperty> properties = new ArrayList<IcsProperty>();
+        for (Property property : component.getProperties()) {
+            String contentLine = property.toString().trim();
+            Map<String, String> parameters = contentLine.indexOf(';') == property.getName().length()
+                    ? VEventLexer.parseParameters(contentLine, property.getName().length())
+                    : Collections.emptyMap();
+            properties.add(new IcsProperty(property.getName(), property.getValue(), parameters));
+        }
+        return new IcsEvent(component.getName(), properties);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<IcsProperty> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns the first property with the given name, or null if there is none
+     * */
+    public IcsProperty getProperty(String propertyName) {
+        for (IcsProperty property : properties) {
+            if (property.name.equals(propertyName)) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the first property with the given name, or null if there is none
+     * */
+    public String getValue(String propertyName) {
+        IcsProperty property = getProperty(propertyName);
+        return property == null ? null : property.value;
+    }
+}
@@ -0,0 +1,98 @@
+package org.semanticwebproject.lib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of every calendar event uploaded to the LDP, keyed on the ICS UID
+ * (with an occurrence suffix for UIDs that a calendar repeats), or for alentoor events on their rewritten @id
+ * ($city-agenda-$number, with empty sequence and last-modified).
+ * Used to only create new events, update changed ones and delete removed ones on re-ingest.
+ * Stored as a tab separated file: uid, sequence, last-modified, content hash, resource iri.
+ * Entries can be put and removed from the upload threads while the manifest is being saved
+ * */
+public class IngestManifest {
+
+    public static class Entry {
+        public final String uid;
+        public final String sequence;
+        public final String lastModified;
+        public final String contentHash;
+        public final String resourceIRI;
+
+        public Entry(String uid, String sequence, String lastModified, String contentHash, String resourceIRI) {
+            this.uid = uid;
+            this.sequence = sequence;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.resourceIRI = resourceIRI;
+        }
+    }
+
+    private final Path path;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private IngestManifest(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Loads the manifest at fileName, or returns an empty manifest if the file does not exist yet
+     * */
+    public static IngestManifest load(String fileName) throws IOException {
+        IngestManifest manifest = new IngestManifest(Paths.get(fileName));
+        if (!Files.exists(manifest.path)) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest.path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 5) {
+                    manifest.entries.put(fields[0], new Entry(fields[0], fields[1], fields[2], fields[3], fields[4]));
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a temp file and moves it over the previous one, so a crash never leaves a truncated manifest
+     * */
+    public synchronized void save() throws IOException {
+        Path tempPath = Paths.get(path + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write(entry.uid + "\t" + entry.sequence + "\t" + entry.lastModified + "\t" + entry.contentHash + "\t" + entry.resourceIRI);
+                writer.newLine();
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Entry get(String uid) {
+        return entries.get(uid);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.uid, entry);
+    }
+
+    public void remove(String uid) {
+        entries.remove(uid);
+    }
+
+    public Set<String> uids() {
+        return Set.copyOf(entries.keySet());
+    }
+}
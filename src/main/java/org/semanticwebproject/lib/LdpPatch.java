@@ -0,0 +1,197 @@
+package org.semanticwebproject.lib;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Adds triples to an ldp resource by sending only the delta, as a sparql update PATCH (INSERT DATA),
+ * instead of a GET of the whole resource followed by a PUT of the whole resource.
+ * The last ETag seen for a resource is kept and sent as If-Match (fetched with a HEAD when none is kept yet);
+ * on a 412 the current ETag is fetched again and the PATCH retried. A resource the server sends no ETag for is
+ * not changed, as the write could silently undo a concurrent one. When the server does not accept PATCH
+ * (405, 415, 501) the resource is updated with a GET-modify-PUT in memory instead, also retried on a 412
+ * */
+public class LdpPatch {
+
+    private static final String SPARQL_UPDATE = "application/sparql-update";
+
+    private static volatile boolean patchSupported = true;
+
+    //last ETag seen for each resource, least recently used dropped first
+    private static final Map<String, String> eTags = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > ETAG_CACHE_MAX_ENTRIES;
+        }
+    };
+
+    private LdpPatch() {
+    }
+
+    /**
+     * Adds the triples of the model to the resource
+     * */
+    public static void insert(String resourceIRI, Model additions) throws Exception {
+        if (additions.isEmpty()) {
+            return;
+        }
+        if (patchSupported && patch(resourceIRI, "INSERT DATA {\n" + toNTriples(additions) + "}")) {
+            return;
+        }
+        putWithAdditions(resourceIRI, additions);
+    }
+
+    /**
+     * Sends a sparql update PATCH, returns false when the server does not support it
+     * */
+    private static boolean patch(String resourceIRI, String update) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            HttpPatch patch = new HttpPatch(resourceIRI);
+            patch.addHeader("Authorization", AUTH_TOKEN);
+            patch.addHeader("Content-Type", SPARQL_UPDATE);
+            String eTag = getETag(resourceIRI);
+            if (eTag == null) {
+                eTag = refreshETag(resourceIRI);
+            }
+            if (eTag == null) {
+                throw new IOException("No ETag for " + resourceIRI + ", refusing to PATCH it without If-Match");
+            }
+            patch.addHeader("If-Match", eTag);
+            patch.setEntity(new StringEntity(update, StandardCharsets.UTF_8));
+
+            try (CloseableHttpResponse response = HttpClientPool.get().execute(patch)) {
+                EntityUtils.consume(response.getEntity());
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode >= 200 && statusCode < 300) {
+                    rememberETag(resourceIRI, response);
+                    return true;
+                }
+                if (statusCode == 405 || statusCode == 415 || statusCode == 501) {
+                    System.out.println("PATCH not supported by the ldp (" + statusCode + "), updating resources with GET and PUT");
+                    patchSupported = false;
+                    return false;
+                }
+                if (statusCode == 412 && attempt < LDP_PRECONDITION_MAX_ATTEMPTS) {
+                    refreshETag(resourceIRI);
+                    continue;
+                }
+                throw new LdpStatusException(resourceIRI, statusCode, response.getStatusLine().getReasonPhrase());
+            }
+        }
+    }
+
+    /**
+     * Fallback for servers without PATCH: GET the resource, add the triples in memory, PUT it back with If-Match
+     * */
+    private static void putWithAdditions(String resourceIRI, Model additions) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            HttpGet get = new HttpGet(resourceIRI);
+            get.addHeader("Authorization", AUTH_TOKEN);
+            get.addHeader("Accept", "text/turtle");
+
+            String eTag;
+            Model model = ModelFactory.createDefaultModel();
+            try (CloseableHttpResponse response = HttpClientPool.get().execute(get)) {
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode >= 400) {
+                    EntityUtils.consume(response.getEntity());
+                    throw new LdpStatusException(resourceIRI, statusCode, response.getStatusLine().getReasonPhrase());
+                }
+                eTag = rememberETag(resourceIRI, response);
+                model.read(new StringReader(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8)), resourceIRI, "Turtle");
+            }
+
+            if (model.containsAll(additions)) {
+                return;
+            }
+            model.add(additions);
+
+            HttpPut put = new HttpPut(resourceIRI);
+            put.addHeader("Authorization", AUTH_TOKEN);
+            put.addHeader("Accept", "text/turtle");
+            put.addHeader("Content-Type", "text/turtle");
+            if (eTag == null) {
+                throw new IOException("No ETag for " + resourceIRI + ", refusing to PUT it without If-Match");
+            }
+            put.addHeader("If-Match", eTag);
+            put.addHeader("Prefer", "http://www.w3.org/ns/ldp#RDFSource; rel=interaction-model");
+            put.setEntity(new StringEntity(Helpers.modelToTurtle(model), StandardCharsets.UTF_8));
+
+            try (CloseableHttpResponse response = HttpClientPool.get().execute(put)) {
+                EntityUtils.consume(response.getEntity());
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode >= 200 && statusCode < 300) {
+                    rememberETag(resourceIRI, response);
+                    return;
+                }
+                if (statusCode == 412 && attempt < LDP_PRECONDITION_MAX_ATTEMPTS) {
+                    continue;
+                }
+                throw new LdpStatusException(resourceIRI, statusCode, response.getStatusLine().getReasonPhrase());
+            }
+        }
+    }
+
+    /**
+     * Fetches the current ETag of the resource with a HEAD, null when the server sends none
+     * */
+    private static String refreshETag(String resourceIRI) throws Exception {
+        forgetETag(resourceIRI);
+        HttpHead head = new HttpHead(resourceIRI);
+        head.addHeader("Authorization", AUTH_TOKEN);
+        try (CloseableHttpResponse response = HttpClientPool.get().execute(head)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new LdpStatusException(resourceIRI, statusCode, response.getStatusLine().getReasonPhrase());
+            }
+            return rememberETag(resourceIRI, response);
+        }
+    }
+
+    private static String rememberETag(String resourceIRI, CloseableHttpResponse response) {
+        Header header = response.getFirstHeader("ETag");
+        if (header == null) {
+            forgetETag(resourceIRI);
+            return null;
+        }
+        synchronized (eTags) {
+            eTags.put(resourceIRI, header.getValue());
+        }
+        return header.getValue();
+    }
+
+    private static String getETag(String resourceIRI) {
+        synchronized (eTags) {
+            return eTags.get(resourceIRI);
+        }
+    }
+
+    private static void forgetETag(String resourceIRI) {
+        synchronized (eTags) {
+            eTags.remove(resourceIRI);
+        }
+    }
+
+    private static String toNTriples(Model model) {
+        StringWriter stringWriter = new StringWriter();
+        model.write(stringWriter, "N-TRIPLES");
+        return stringWriter.toString();
+    }
+}
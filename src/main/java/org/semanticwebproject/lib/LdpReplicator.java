@@ -0,0 +1,142 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.rdf.model.Model;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Write-behind replication of the local store to the ldp.
+ * Changes are journaled in the UploadOutbox, queued per resource and sent in the background through an UploadPipeline
+ * (bounded and retried), so the writer only waits for the local store and the journal. While a resource has a change
+ * queued or in flight, newer changes to it replace the queued one, and a resource is never sent twice at the same time,
+ * so the ldp always ends up with the latest version. A change is acknowledged in the outbox once the ldp confirmed it
+ * */
+public class LdpReplicator {
+
+    /**
+     * Sends a journaled PUT or DELETE to the ldp
+     * */
+    public interface Sender {
+        void send(UploadOutbox.Mutation mutation) throws Exception;
+    }
+
+    private final Sender sender;
+    private final UploadOutbox outbox;
+    private final UploadPipeline uploadPipeline = new UploadPipeline(UPLOAD_CONCURRENCY, false);
+    //latest queued change of each resource, in the order they were made
+    private final Map<String, UploadOutbox.Mutation> pending = new LinkedHashMap<String, UploadOutbox.Mutation>();
+    private final Set<String> inFlight = new HashSet<String>();
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    public LdpReplicator(Sender sender, UploadOutbox outbox) {
+        this.sender = sender;
+        this.outbox = outbox;
+        Thread dispatcher = new Thread(this::dispatch, "ldp-replicator");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public void enqueuePut(String resourceIRI, Model model) {
+        enqueue(outbox.append(UploadOutbox.PUT, resourceIRI, resourceIRI, Helpers.modelToTurtle(model)));
+    }
+
+    public void enqueueDelete(String resourceIRI) {
+        enqueue(outbox.append(UploadOutbox.DELETE, resourceIRI, resourceIRI, null));
+    }
+
+    /**
+     * Queues an already journaled change, eg one left unacknowledged by a previous run
+     * */
+    public synchronized void enqueue(UploadOutbox.Mutation mutation) {
+        pending.remove(mutation.url);
+        pending.put(mutation.url, mutation);
+        notifyAll();
+    }
+
+    /**
+     * Waits until every queued change has been sent (or has failed)
+     * */
+    public synchronized void flush() throws InterruptedException {
+        while (!pending.isEmpty() || !inFlight.isEmpty()) {
+            wait();
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size() + inFlight.size();
+    }
+
+    public int getSentCount() {
+        return sentCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                UploadOutbox.Mutation mutation;
+                synchronized (this) {
+                    while ((mutation = nextSendable()) == null) {
+                        wait();
+                    }
+                    pending.remove(mutation.url);
+                    inFlight.add(mutation.url);
+                }
+
+                //blocks while the pipeline is full, so at most UPLOAD_CONCURRENCY changes are in flight
+                UploadOutbox.Mutation sentMutation = mutation;
+                UploadPipeline.Status status = mutation.method.equals(UploadOutbox.DELETE) ? UploadPipeline.Status.DELETED : UploadPipeline.Status.UPDATED;
+                uploadPipeline.submitAndThen(mutation.key, status, () -> {
+                    try {
+                        sender.send(sentMutation);
+                    } catch (Exception e) {
+                        if (UploadPipeline.isRejected(e)) {
+                            outbox.reject(sentMutation, e.getMessage());
+                        }
+                        throw e;
+                    }
+                    outbox.ack(sentMutation);
+                    return sentMutation.url;
+                }, outcome -> {
+                    //a failed change stays pending in the outbox and is sent again on the next start, unless the ldp refused it
+                    if (outcome.status == UploadPipeline.Status.FAILED) {
+                        System.out.println("Replication to ldp failed: " + outcome);
+                        failedCount.incrementAndGet();
+                    } else {
+                        sentCount.incrementAndGet();
+                    }
+                    done(sentMutation.url);
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The oldest queued change whose resource is not being sent already
+     * */
+    private UploadOutbox.Mutation nextSendable() {
+        for (UploadOutbox.Mutation mutation : pending.values()) {
+            if (!inFlight.contains(mutation.url)) {
+                return mutation;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void done(String resourceIRI) {
+        inFlight.remove(resourceIRI);
+        notifyAll();
+    }
+}
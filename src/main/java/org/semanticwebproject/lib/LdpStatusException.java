@@ -0,0 +1,22 @@
+package org.semanticwebproject.lib;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the ldp answers a request with a status other than 2xx
+ * */
+public class LdpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public LdpStatusException(String url, int statusCode, String reason) {
+        super("HTTP " + statusCode + " " + reason + " from " + url);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,101 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.TDB2;
+import org.apache.jena.tdb2.TDB2Factory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Embedded TDB2 dataset in LOCAL_STORE_DIRECTORY, used as the local read model of the ldp when USE_LOCAL_STORE is on.
+ * Every resource written to the ldp is kept in its own named graph (named after the resource iri),
+ * so a resource can be replaced or deleted as a whole, and queries run over the union of all the graphs,
+ * answering like the ldp sparql endpoint does
+ * */
+public class LocalStore {
+
+    private static LocalStore instance;
+
+    private final Dataset dataset;
+
+    private LocalStore(Dataset dataset) {
+        this.dataset = dataset;
+    }
+
+    public static synchronized LocalStore get() {
+        if (instance == null) {
+            instance = new LocalStore(TDB2Factory.connectDataset(LOCAL_STORE_DIRECTORY));
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the content of the resource with the model
+     * */
+    public void put(String resourceIRI, Model model) {
+        Txn.executeWrite(dataset, () -> {
+            dataset.removeNamedModel(resourceIRI);
+            dataset.addNamedModel(resourceIRI, model);
+        });
+    }
+
+    public void delete(String resourceIRI) {
+        Txn.executeWrite(dataset, () -> dataset.removeNamedModel(resourceIRI));
+    }
+
+    public boolean contains(String resourceIRI) {
+        return Txn.calculateRead(dataset, () -> dataset.containsNamedModel(resourceIRI));
+    }
+
+    /**
+     * An in-memory copy of the resource, empty if the store does not have it
+     * */
+    public Model getModel(String resourceIRI) {
+        return Txn.calculateRead(dataset, () -> ModelFactory.createDefaultModel().add(dataset.getNamedModel(resourceIRI)));
+    }
+
+    /**
+     * Applies a change to the resource within one write transaction and returns a copy of the changed resource
+     * */
+    public Model update(String resourceIRI, Consumer<Model> change) {
+        return Txn.calculateWrite(dataset, () -> {
+            Model model = dataset.getNamedModel(resourceIRI);
+            change.accept(model);
+            return ModelFactory.createDefaultModel().add(model);
+        });
+    }
+
+    /**
+     * Runs a SELECT query over all resources, handing the bindings to the handler as they are produced
+     * */
+    public void select(Query query, SparqlResultStream.BindingHandler handler) throws Exception {
+        dataset.begin(ReadWrite.READ);
+        try (QueryExecution queryExecution = QueryExecutionFactory.create(query, dataset)) {
+            queryExecution.getContext().set(TDB2.symUnionDefaultGraph, true);
+            SparqlResultStream.read(queryExecution.execSelect(), handler);
+        } finally {
+            dataset.end();
+        }
+    }
+
+    /**
+     * Runs a SELECT query over all resources, returning the results in the sparql json results format
+     * */
+    public String selectAsJson(Query query) {
+        return Txn.calculateRead(dataset, () -> {
+            try (QueryExecution queryExecution = QueryExecutionFactory.create(query, dataset)) {
+                queryExecution.getContext().set(TDB2.symUnionDefaultGraph, true);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ResultSetFormatter.outputAsJSON(out, queryExecution.execSelect());
+                return out.toString(StandardCharsets.UTF_8);
+            }
+        });
+    }
+}
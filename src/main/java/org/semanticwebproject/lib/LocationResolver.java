@@ -0,0 +1,111 @@
+package org.semanticwebproject.lib;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves raw ICS LOCATION values to Territoire room IRIs (eg "EMSE Espace Fauriel S224" to $prefix2ET/224).
+ * Floor IRIs are precomputed per prefix, and resolved locations are memoized in a bounded concurrent cache
+ * since timetables reuse a handful of rooms for thousands of events
+ * */
+public class LocationResolver {
+
+    private static final int MAX_CACHE_SIZE = 10000;
+    private static final Pattern COMMA = Pattern.compile(",");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern NON_DIGITS = Pattern.compile("[^0-9]");
+
+    private static final Map<String, LocationResolver> resolvers = new ConcurrentHashMap<String, LocationResolver>();
+
+    //floor IRIs indexed by floor number, eg floorIRIs[2] = $prefix2ET/
+    private final String[] floorIRIs = new String[7];
+    private final Map<String, String> cache = new ConcurrentHashMap<String, String>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private LocationResolver(String prefix) {
+        for (int floor = 1; floor < floorIRIs.length; floor++) {
+            floorIRIs[floor] = prefix + floor + "ET/";
+        }
+    }
+
+    /**
+     * Returns the shared resolver for a Territoire IRI prefix
+     * */
+    public static LocationResolver forPrefix(String prefix) {
+        return resolvers.computeIfAbsent(prefix, LocationResolver::new);
+    }
+
+    public String resolve(String locationPassed) {
+        String location = cache.get(locationPassed);
+        if (location != null) {
+            hits.incrementAndGet();
+            return location;
+        }
+
+        misses.incrementAndGet();
+        location = convert(locationPassed);
+        if (cache.size() >= MAX_CACHE_SIZE) {
+            cache.clear();
+        }
+        cache.put(locationPassed, location);
+        return location;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    private String convert(String locationPassed) {
+        String[] splitLocations = COMMA.split(locationPassed);
+        String location = splitLocations.length > 1 ? splitLocations[1] : splitLocations[0];
+        String[] splitLocation = WHITESPACE.split(location);
+
+        if (containsIgnoreCase(splitLocation, "emse") && containsIgnoreCase(splitLocation, "fauriel")) {
+            //convert to Territoire IRI
+            String roomName = splitLocation[splitLocation.length - 1];
+
+            //room names like S1.32 carry their floor after the S
+            if (roomName.length() > 1 && (roomName.charAt(0) == 's' || roomName.charAt(0) == 'S')) {
+                String floorIRI = floorIRI(roomName.charAt(1));
+                if (floorIRI != null) {
+                    return floorIRI + roomName.substring(1).replace(".", "");
+                }
+            }
+        } else if (!containsIgnoreCase(location, "amphi") && !containsIgnoreCase(location, "salle")) {
+            //other location eg UJM
+            return "UJM-" + NON_DIGITS.matcher(location).replaceAll("");
+        }
+
+        String roomNumber = NON_DIGITS.matcher(location).replaceAll("");
+        String floorIRI = roomNumber.isEmpty() ? null : floorIRI(roomNumber.charAt(0));
+        return floorIRI != null ? floorIRI + roomNumber : location;
+    }
+
+    private String floorIRI(char floor) {
+        return floor >= '1' && floor <= '6' ? floorIRIs[floor - '0'] : null;
+    }
+
+    private static boolean containsIgnoreCase(String[] tokens, String token) {
+        for (String candidate : tokens) {
+            if (candidate.equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsIgnoreCase(String text, String part) {
+        return text.toLowerCase().contains(part);
+    }
+}
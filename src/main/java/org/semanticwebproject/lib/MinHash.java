@@ -0,0 +1,98 @@
+package org.semanticwebproject.lib;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * MinHash signatures of texts over their character shingles. The fraction of equal positions in two signatures
+ * estimates the jaccard similarity of the shingle sets of the two texts, so texts can be compared with a few
+ * integer comparisons. Texts are compared case and accent insensitive, ignoring punctuation
+ * */
+public class MinHash {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{Alnum}]+");
+
+    private final long[] seeds;
+    private final int shingleSize;
+
+    public MinHash(int numHashes, int shingleSize, long seed) {
+        Random random = new Random(seed);
+        this.seeds = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            seeds[i] = random.nextLong();
+        }
+        this.shingleSize = shingleSize;
+    }
+
+    public int getNumHashes() {
+        return seeds.length;
+    }
+
+    /**
+     * The signature of the text, null when it has no shingle (eg blank)
+     * */
+    public int[] signature(String text) {
+        String normalized = normalize(text);
+        if (normalized.length() < shingleSize) {
+            return normalized.isEmpty() ? null : signatureOf(new long[]{normalized.hashCode()});
+        }
+        long[] shingles = new long[normalized.length() - shingleSize + 1];
+        for (int i = 0; i < shingles.length; i++) {
+            long shingle = 0;
+            for (int k = i; k < i + shingleSize; k++) {
+                shingle = shingle * 31 + normalized.charAt(k);
+            }
+            shingles[i] = shingle;
+        }
+        return signatureOf(shingles);
+    }
+
+    private int[] signatureOf(long[] shingles) {
+        int[] signature = new int[seeds.length];
+        for (int i = 0; i < seeds.length; i++) {
+            long min = Long.MAX_VALUE;
+            for (long shingle : shingles) {
+                min = Math.min(min, mix(shingle ^ seeds[i]));
+            }
+            signature[i] = (int) (min ^ (min >>> 32));
+        }
+        return signature;
+    }
+
+    /**
+     * The estimated jaccard similarity of the texts of two signatures
+     * */
+    public static double similarity(int[] first, int[] second) {
+        int equal = 0;
+        for (int i = 0; i < first.length; i++) {
+            if (first[i] == second[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / first.length;
+    }
+
+    /**
+     * Lower case, without accents, words separated by a single space
+     * */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String withoutAccents = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return NON_ALPHANUMERIC.matcher(withoutAccents.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    //finalizer of murmur3, spreads the bits of the shingle hash xored with the seed of a hash function
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
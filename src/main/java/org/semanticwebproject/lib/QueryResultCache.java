@@ -0,0 +1,160 @@
+package org.semanticwebproject.lib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Cache of the results of the read endpoints (/get-events, /get-non-course-events), keyed on their normalized parameters.
+ * At most QUERY_CACHE_MAX_ENTRIES results are kept, the least recently used is evicted first, and a result is
+ * recomputed once it is older than QUERY_CACHE_TTL_MILLIS (to pick up writes made to the ldp by someone else).
+ * Writes made by this application invalidate only the results they can change: a date range result when an event
+ * inside the range changes, the non-course events when an event is added or removed, and any result listing a resource
+ * that was rewritten
+ * */
+public class QueryResultCache {
+
+    private static final QueryResultCache instance = new QueryResultCache(QUERY_CACHE_MAX_ENTRIES, QUERY_CACHE_TTL_MILLIS);
+
+    /**
+     * A result and what it depends on: the events overlapping [from, to), or the set of all events
+     * */
+    private static final class Entry {
+        final String value;
+        final long createdAt;
+        final boolean allEvents;
+        final long from;
+        final long to;
+
+        Entry(String value, long createdAt, boolean allEvents, long from, long to) {
+            this.value = value;
+            this.createdAt = createdAt;
+            this.allEvents = allEvents;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    //bumped by every invalidation, so a result computed across an invalidation is not cached
+    private long generation;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+    private long invalidationCount;
+
+    public QueryResultCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > QueryResultCache.this.maxEntries) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static QueryResultCache get() {
+        return instance;
+    }
+
+    /**
+     * The cached result of a page of the events overlapping [from, to), computing it on a miss
+     * */
+    public String getEvents(long from, long to, ResultPage page, Callable<String> query) throws Exception {
+        return getOrCompute("events:" + from + ":" + to + page.key(), false, from, to, query);
+    }
+
+    /**
+     * The cached result of a query over the set of all events (eg the non-course events), computing it on a miss
+     * */
+    public String getForAllEvents(String key, Callable<String> query) throws Exception {
+        return getOrCompute(key, true, 0, 0, query);
+    }
+
+    private String getOrCompute(String key, boolean allEvents, long from, long to, Callable<String> query) throws Exception {
+        long startGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.createdAt <= ttlMillis) {
+                hitCount++;
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                expirationCount++;
+            }
+            missCount++;
+            startGeneration = generation;
+        }
+
+        String value = query.call();
+        synchronized (this) {
+            if (generation == startGeneration) {
+                entries.put(key, new Entry(value, System.currentTimeMillis(), allEvents, from, to));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * An event was created, updated or deleted: drops the results of ranges overlapping its previous or new
+     * [start, end) (null when it had / has none) and, if it was added or removed, the results over all events
+     * */
+    public synchronized void invalidateEvent(long[] previousInterval, long[] newInterval) {
+        boolean membershipChanged = previousInterval == null || newInterval == null;
+        invalidateWhere(entry -> entry.allEvents
+                ? membershipChanged
+                : overlaps(entry, previousInterval) || overlaps(entry, newInterval));
+    }
+
+    /**
+     * A resource was rewritten: drops every result that lists it
+     * */
+    public synchronized void invalidateResource(String resourceIRI) {
+        invalidateWhere(entry -> entry.value.contains(resourceIRI));
+    }
+
+    public synchronized void invalidateAll() {
+        invalidationCount += entries.size();
+        entries.clear();
+        generation++;
+    }
+
+    public synchronized String getStats() {
+        long requests = hitCount + missCount;
+        return "{\"entries\": " + entries.size()
+                + ", \"hits\": " + hitCount
+                + ", \"misses\": " + missCount
+                + ", \"hitRate\": " + (requests == 0 ? 0 : (double) hitCount / requests)
+                + ", \"evictions\": " + evictionCount
+                + ", \"expirations\": " + expirationCount
+                + ", \"invalidations\": " + invalidationCount + "}";
+    }
+
+    private void invalidateWhere(Predicate<Entry> filter) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (filter.test(iterator.next())) {
+                iterator.remove();
+                invalidationCount++;
+            }
+        }
+        generation++;
+    }
+
+    private static boolean overlaps(Entry entry, long[] interval) {
+        return interval != null && interval[0] < entry.to && interval[1] > entry.from;
+    }
+}
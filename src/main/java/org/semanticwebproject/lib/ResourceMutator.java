@@ -0,0 +1,96 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Serializes the updates of each resource while updates of different resources run in parallel.
+ * Triples added to a resource are queued in memory; the first caller finding no write of the resource in progress
+ * writes everything queued for it, again and again until the queue is empty, and the other callers wait for the write
+ * that carried their triples. N concurrent attendee additions to one event therefore cost a couple of writes, not N.
+ * Only the caller holding a resource in the writing set writes it, so writes of the same resource never overlap
+ * */
+public class ResourceMutator {
+
+    /**
+     * Adds triples to a resource (eg with a PATCH on the ldp), retrying conflicts itself
+     * */
+    public interface Writer {
+        void insert(String resourceIRI, Model additions) throws Exception;
+    }
+
+    /**
+     * Triples queued for a resource and the callers waiting for them to be written
+     * */
+    private static final class PendingWrite {
+        final Model additions = ModelFactory.createDefaultModel();
+        final CompletableFuture<Void> written = new CompletableFuture<Void>();
+        int mergedCount;
+    }
+
+    private final Writer writer;
+    private final Map<String, PendingWrite> pending = new ConcurrentHashMap<String, PendingWrite>();
+    //resources with a caller writing their queued triples
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+
+    public ResourceMutator(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Adds the triples to the resource, returning once they are written
+     * */
+    public void insert(String resourceIRI, Model additions) throws Exception {
+        //compute is atomic per key: queueing triples and handing over the writing of a resource never interleave
+        boolean[] writesQueue = new boolean[1];
+        PendingWrite queued = pending.compute(resourceIRI, (iri, current) -> {
+            PendingWrite pendingWrite = current != null ? current : new PendingWrite();
+            pendingWrite.additions.add(additions);
+            pendingWrite.mergedCount++;
+            writesQueue[0] = writing.add(iri);
+            return pendingWrite;
+        });
+
+        //the first caller writes the queued triples of the resource until none are left, the others wait for their write
+        if (writesQueue[0]) {
+            writeQueued(resourceIRI);
+        }
+        try {
+            queued.written.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private void writeQueued(String resourceIRI) {
+        while (true) {
+            PendingWrite[] taken = new PendingWrite[1];
+            pending.compute(resourceIRI, (iri, current) -> {
+                if (current == null) {
+                    writing.remove(iri);
+                }
+                taken[0] = current;
+                return null;
+            });
+            if (taken[0] == null) {
+                return;
+            }
+            if (taken[0].mergedCount > 1) {
+                System.out.println("Merged " + taken[0].mergedCount + " updates of " + resourceIRI + " into one write");
+            }
+
+            try {
+                writer.insert(resourceIRI, taken[0].additions);
+                taken[0].written.complete(null);
+            } catch (Exception e) {
+                taken[0].written.completeExceptionally(e);
+            }
+        }
+    }
+}
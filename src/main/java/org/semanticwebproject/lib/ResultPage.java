@@ -0,0 +1,81 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.query.Query;
+
+import java.util.List;
+
+/**
+ * A LIMIT / OFFSET window over the results of a read endpoint. Queries push it down to the sparql endpoint
+ * (results have a stable order), so only the rows of the page are transferred and held in memory
+ * */
+public class ResultPage {
+
+    public static final ResultPage ALL = new ResultPage(0, Integer.MAX_VALUE);
+
+    private final int offset;
+    private final int limit;
+
+    public ResultPage(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid page: offset " + offset + ", limit " + limit);
+        }
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * The page from the offset and limit request parameters, either of which may be missing (null or blank)
+     * */
+    public static ResultPage of(String offset, String limit) {
+        boolean noOffset = offset == null || offset.isBlank();
+        boolean noLimit = limit == null || limit.isBlank();
+        if (noOffset && noLimit) {
+            return ALL;
+        }
+        try {
+            return new ResultPage(noOffset ? 0 : Integer.parseInt(offset.trim()), noLimit ? Integer.MAX_VALUE : Integer.parseInt(limit.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page: offset " + offset + ", limit " + limit);
+        }
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isAll() {
+        return offset == 0 && limit == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Sets the LIMIT / OFFSET selecting the page on a query ordering its results
+     * */
+    public void applyTo(Query query) {
+        if (limit != Integer.MAX_VALUE) {
+            query.setLimit(limit);
+        }
+        if (offset > 0) {
+            query.setOffset(offset);
+        }
+    }
+
+    /**
+     * The page of a list holding all the results
+     * */
+    public <T> List<T> slice(List<T> results) {
+        int from = Math.min(offset, results.size());
+        int to = (int) Math.min((long) from + limit, results.size());
+        return results.subList(from, to);
+    }
+
+    /**
+     * Suffix of the cache key of a paged result
+     * */
+    public String key() {
+        return isAll() ? "" : ":" + offset + ":" + limit;
+    }
+}
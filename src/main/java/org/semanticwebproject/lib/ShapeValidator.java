@@ -0,0 +1,74 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.topbraid.jenax.util.ARQFactory;
+import org.topbraid.jenax.util.JenaUtil;
+import org.topbraid.shacl.arq.SHACLFunctions;
+import org.topbraid.shacl.engine.ShapesGraph;
+import org.topbraid.shacl.engine.ShapesGraphFactory;
+import org.topbraid.shacl.util.SHACLUtil;
+import org.topbraid.shacl.validation.ValidationEngine;
+import org.topbraid.shacl.validation.ValidationEngineConfiguration;
+import org.topbraid.shacl.validation.ValidationEngineFactory;
+import org.topbraid.shacl.validation.ValidationUtil;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Validates in-memory data against shacl shapes files.
+ * Each set of shapes files is read and compiled into a TopBraid ShapesGraph once, on first use,
+ * and the compiled shapes are shared by every validation on every thread
+ * */
+public class ShapeValidator {
+
+    private static final Map<String, ShapeValidator> validators = new ConcurrentHashMap<String, ShapeValidator>();
+
+    private final Model shapesModel;
+    private final URI shapesGraphURI;
+    private final ShapesGraph shapesGraph;
+
+    private ShapeValidator(Model shapesModel) {
+        this.shapesModel = ValidationUtil.ensureToshTriplesExist(shapesModel);
+        SHACLFunctions.registerFunctions(this.shapesModel);
+        this.shapesGraphURI = SHACLUtil.createRandomShapesGraphURI();
+        this.shapesGraph = ShapesGraphFactory.get().createShapesGraph(this.shapesModel);
+    }
+
+    /**
+     * Returns the validator for one or more shapes files, loading and compiling the shapes on first use.
+     * Several files are merged into one shapes graph, so data is checked against all of them in a single run
+     * (shapes sharing an IRI, like schema:EventShape, combine their constraints)
+     * */
+    public static ShapeValidator forShapes(String... shapeFileNames) {
+        return validators.computeIfAbsent(String.join("+", shapeFileNames), key -> {
+            Model shapesModel = JenaUtil.createDefaultModel();
+            for (String shapeFileName : shapeFileNames) {
+                shapesModel.read(shapeFileName);
+            }
+            return new ShapeValidator(shapesModel);
+        });
+    }
+
+    /**
+     * Validates a model, returning the sh:ValidationReport resource
+     * */
+    public Resource validate(Model dataModel) throws InterruptedException {
+        Dataset dataset = ARQFactory.get().getDataset(dataModel);
+        dataset.addNamedModel(shapesGraphURI.toString(), shapesModel);
+
+        ValidationEngine engine = ValidationEngineFactory.get().create(dataset, shapesGraphURI, shapesGraph, null);
+        engine.setConfiguration(new ValidationEngineConfiguration().setValidateShapes(true));
+        engine.validateAll();
+        return engine.getReport();
+    }
+
+    public Resource validate(Graph dataGraph) throws InterruptedException {
+        return validate(ModelFactory.createModelForGraph(dataGraph));
+    }
+}
@@ -0,0 +1,198 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The sparql queries of the read and linking endpoints, parsed once when the class is loaded.
+ * A query is made by binding typed values to the parameters of its template (variables of the template,
+ * replaced in the parsed syntax tree, never spliced into the query text), after checking that they are
+ * absolute iris / valid xsd:dateTimes. The query is then run as is on the local store, or serialized for the
+ * ldp sparql endpoint, which always sees the same query shape
+ * */
+public class SparqlQueries {
+
+    private static final String PREFIXES = "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n" +
+            "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
+            "PREFIX schema: <http://schema.org/>\n" +
+            "\n";
+
+    /**
+     * Events overlapping [?from, ?to), by start
+     * */
+    public static final Template EVENTS_OVERLAPPING = new Template("events-overlapping", PREFIXES +
+            "SELECT DISTINCT ?sub WHERE {\n" +
+            "  ?sub schema:startDate ?startDate;\n" +
+            "  schema:endDate ?endDate.\n" +
+            "  FILTER(xsd:dateTime(?startDate) < ?to\n" +
+            "      && xsd:dateTime(?endDate) > ?from)\n" +
+            "}\n" +
+            "ORDER BY ?startDate ?sub", "from", "to");
+
+    /**
+     * Start and end of every event
+     * */
+    public static final Template EVENT_INTERVALS = new Template("event-intervals", PREFIXES +
+            "SELECT ?sub ?startDate ?endDate WHERE {\n" +
+            "  ?sub schema:startDate ?startDate;\n" +
+            "  schema:endDate ?endDate.\n" +
+            "}");
+
+    /**
+     * Events without schema:Course type, by iri
+     * */
+    public static final Template NON_COURSE_EVENTS = new Template("non-course-events", PREFIXES +
+            "SELECT DISTINCT ?sub WHERE {\n" +
+            "  ?sub a schema:Event.\n" +
+            "  FILTER (\n" +
+            "     !EXISTS {\n" +
+            "       ?sub a schema:Course\n" +
+            "     }\n" +
+            "   )\n" +
+            "}\n" +
+            "ORDER BY ?sub");
+
+    /**
+     * Events at ?location starting at ?start and ending at ?end
+     * */
+    public static final Template SAME_EVENTS = new Template("same-events", PREFIXES +
+            "SELECT DISTINCT ?sub WHERE {\n" +
+            "  ?sub schema:location ?location;\n" +
+            "  schema:startDate ?startDate;\n" +
+            "  schema:endDate ?endDate.\n" +
+            "  FILTER(xsd:dateTime(?startDate) = ?start)\n" +
+            "  FILTER(xsd:dateTime(?endDate) = ?end)\n" +
+            "}", "location", "start", "end");
+
+    /**
+     * Location, start and end of every event
+     * */
+    public static final Template EVENT_SLOTS = new Template("event-slots", PREFIXES +
+            "SELECT ?sub ?location ?startDate ?endDate WHERE {\n" +
+            "  ?sub schema:location ?location;\n" +
+            "  schema:startDate ?startDate;\n" +
+            "  schema:endDate ?endDate.\n" +
+            "}");
+
+    /**
+     * Start, location (and name of the place) and texts of every event, one row per combination of values
+     * */
+    public static final Template EVENT_TEXTS = new Template("event-texts", PREFIXES +
+            "PREFIX example: <http://example.org/>\n" +
+            "SELECT ?sub ?startDate ?location ?locationName ?summary ?name ?description WHERE {\n" +
+            "  ?sub a schema:Event;\n" +
+            "  schema:startDate ?startDate.\n" +
+            "  OPTIONAL { ?sub schema:location ?location. OPTIONAL { ?location schema:name ?locationName } }\n" +
+            "  OPTIONAL { ?sub example:summary ?summary }\n" +
+            "  OPTIONAL { ?sub schema:name ?name }\n" +
+            "  OPTIONAL { ?sub schema:description ?description }\n" +
+            "}");
+
+    private SparqlQueries() {
+    }
+
+    /**
+     * A parsed query and the names of its parameters
+     * */
+    public static final class Template {
+        private final String name;
+        private final Query query;
+        private final Set<String> parameters;
+
+        Template(String name, String queryString, String... parameters) {
+            this.name = name;
+            this.query = QueryFactory.create(queryString);
+            this.parameters = new LinkedHashSet<String>(Arrays.asList(parameters));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Starts binding the parameters of a query
+         * */
+        public Binder bind() {
+            return new Binder(this);
+        }
+    }
+
+    /**
+     * The values bound to the parameters of a template
+     * */
+    public static final class Binder {
+        private final Template template;
+        private final Map<Var, Node> values = new HashMap<Var, Node>();
+        private ResultPage page = ResultPage.ALL;
+
+        Binder(Template template) {
+            this.template = template;
+        }
+
+        public Binder iri(String parameter, String iri) {
+            if (iri == null || !isAbsoluteIri(iri)) {
+                throw new IllegalArgumentException("Invalid iri for " + parameter + ": " + iri);
+            }
+            return set(parameter, NodeFactory.createURI(iri));
+        }
+
+        public Binder dateTime(String parameter, String lexicalForm) {
+            if (lexicalForm == null || !XSDDatatype.XSDdateTime.isValid(lexicalForm)) {
+                throw new IllegalArgumentException("Invalid dateTime for " + parameter + ": " + lexicalForm);
+            }
+            return set(parameter, NodeFactory.createLiteral(lexicalForm, XSDDatatype.XSDdateTime));
+        }
+
+        public Binder page(ResultPage page) {
+            this.page = page;
+            return this;
+        }
+
+        /**
+         * A copy of the parsed template with the values in place of the parameters
+         * */
+        public Query toQuery() {
+            if (values.size() != template.parameters.size()) {
+                throw new IllegalStateException("Unbound parameters in " + template.name + " query: " + template.parameters);
+            }
+            Query query = values.isEmpty() ? template.query.cloneQuery() : QueryTransformOps.transform(template.query, values);
+            page.applyTo(query);
+            return query;
+        }
+
+        private Binder set(String parameter, Node value) {
+            if (!template.parameters.contains(parameter)) {
+                throw new IllegalArgumentException("Unknown parameter " + parameter + " of " + template.name + " query");
+            }
+            values.put(Var.alloc(parameter), value);
+            return this;
+        }
+    }
+
+    /**
+     * Whether iri is an absolute iri (has a scheme), eg before binding it into a query
+     * */
+    public static boolean isAbsoluteIri(String iri) {
+        if (iri == null) {
+            return false;
+        }
+        try {
+            return new URI(iri).isAbsolute();
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.atlas.json.io.JSONHandler;
+import org.apache.jena.atlas.json.io.parser.JSONParser;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.RDFNode;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reads sparql SELECT results one binding at a time, without building the whole response in memory:
+ * the sparql json results format is parsed as a stream of json events and each binding is handed to a
+ * BindingHandler as soon as it is complete. The handler can stop reading (eg once a page is full),
+ * which leaves the rest of the response unread
+ * */
+public class SparqlResultStream {
+
+    /**
+     * Receives the bindings in result order, returns false to stop reading
+     * */
+    public interface BindingHandler {
+        boolean accept(Binding binding) throws Exception;
+    }
+
+    /**
+     * One row of the results: the type (uri, literal, bnode) and value of each bound variable
+     * */
+    public static class Binding {
+        private final Map<String, String> types = new HashMap<String, String>();
+        private final Map<String, String> values = new HashMap<String, String>();
+
+        public String getType(String variable) {
+            return types.get(variable);
+        }
+
+        public String getValue(String variable) {
+            return values.get(variable);
+        }
+
+        public boolean isUri(String variable) {
+            return "uri".equals(types.get(variable));
+        }
+
+        void set(String variable, String type, String value) {
+            types.put(variable, type);
+            values.put(variable, value);
+        }
+    }
+
+    /**
+     * Thrown through the json parser to stop reading once the handler asked to
+     * */
+    private static final class StopReading extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Thrown through the json parser to carry an exception of the handler
+     * */
+    private static final class HandlerFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        HandlerFailure(Exception cause) {
+            super(cause);
+        }
+    }
+
+    private SparqlResultStream() {
+    }
+
+    /**
+     * Reads results in the sparql json results format from the stream
+     * */
+    public static void parse(InputStream in, BindingHandler handler) throws Exception {
+        try {
+            JSONParser.parse(in, new BindingReader(handler));
+        } catch (StopReading e) {
+            //the handler has what it needs
+        } catch (HandlerFailure e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Reads the results of a local query execution
+     * */
+    public static void read(ResultSet resultSet, BindingHandler handler) throws Exception {
+        while (resultSet.hasNext()) {
+            QuerySolution solution = resultSet.next();
+            Binding binding = new Binding();
+            Iterator<String> variables = solution.varNames();
+            while (variables.hasNext()) {
+                String variable = variables.next();
+                RDFNode node = solution.get(variable);
+                if (node.isURIResource()) {
+                    binding.set(variable, "uri", node.asResource().getURI());
+                } else if (node.isLiteral()) {
+                    binding.set(variable, "literal", node.asLiteral().getLexicalForm());
+                } else {
+                    binding.set(variable, "bnode", node.toString());
+                }
+            }
+            if (!handler.accept(binding)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Follows the json events of {"results": {"bindings": [{variable: {"type": .., "value": ..}, ..}, ..]}}.
+     * A key is reported as a string value followed by keyPair, so a string is only known to be a value
+     * when its pair finishes without a keyPair
+     * */
+    private static final class BindingReader implements JSONHandler {
+        private final BindingHandler handler;
+        private final Deque<String> keys = new ArrayDeque<String>();
+        private int depth;
+        private String lastString;
+        private Binding binding;
+        private String termType;
+        private String termValue;
+
+        BindingReader(BindingHandler handler) {
+            this.handler = handler;
+        }
+
+        private boolean inBindings() {
+            Iterator<String> path = keys.descendingIterator();
+            return keys.size() >= 2 && path.next().equals("results") && path.next().equals("bindings");
+        }
+
+        @Override
+        public void startObject(long currLine, long currCol) {
+            depth++;
+            lastString = null;
+            if (depth == 3 && keys.size() == 2 && inBindings()) {
+                binding = new Binding();
+            } else if (depth == 4 && binding != null) {
+                termType = null;
+                termValue = null;
+            }
+        }
+
+        @Override
+        public void finishObject(long currLine, long currCol) {
+            if (depth == 4 && binding != null && termValue != null) {
+                binding.set(keys.peek(), termType, termValue);
+            } else if (depth == 3 && binding != null) {
+                Binding completed = binding;
+                binding = null;
+                boolean carryOn;
+                try {
+                    carryOn = handler.accept(completed);
+                } catch (Exception e) {
+                    throw new HandlerFailure(e);
+                }
+                if (!carryOn) {
+                    throw new StopReading();
+                }
+            }
+            depth--;
+        }
+
+        @Override
+        public void valueString(String image, long currLine, long currCol) {
+            lastString = image;
+        }
+
+        @Override
+        public void keyPair(long currLine, long currCol) {
+            keys.push(lastString);
+            lastString = null;
+        }
+
+        @Override
+        public void finishPair(long currLine, long currCol) {
+            String key = keys.pop();
+            if (lastString != null && depth == 4 && binding != null) {
+                if (key.equals("type")) {
+                    termType = lastString;
+                } else if (key.equals("value")) {
+                    termValue = lastString;
+                }
+            }
+            lastString = null;
+        }
+
+        @Override
+        public void startArray(long currLine, long currCol) {
+            lastString = null;
+        }
+
+        @Override
+        public void element(long currLine, long currCol) {
+            lastString = null;
+        }
+
+        @Override
+        public void startParse(long currLine, long currCol) {
+        }
+
+        @Override
+        public void finishParse(long currLine, long currCol) {
+        }
+
+        @Override
+        public void startPair(long currLine, long currCol) {
+        }
+
+        @Override
+        public void finishArray(long currLine, long currCol) {
+        }
+
+        @Override
+        public void valueInteger(String image, long currLine, long currCol) {
+        }
+
+        @Override
+        public void valueDouble(String image, long currLine, long currCol) {
+        }
+
+        @Override
+        public void valueBoolean(boolean b, long currLine, long currCol) {
+        }
+
+        @Override
+        public void valueNull(long currLine, long currCol) {
+        }
+
+        @Override
+        public void valueDecimal(String image, long currLine, long currCol) {
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.semanticwebproject.lib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Append-only journal of the mutations sent to the ldp (OUTBOX_FILE_NAME).
+ * A PENDING line with the full request is appended before a POST / PUT / DELETE is sent,
+ * and an ACK line once the server has confirmed it (2xx). Lines are flushed as they are written,
+ * so after a crash the journal tells exactly which mutations may not have reached the ldp,
+ * and only those are replayed on the next start.
+ * A mutation the server refused (4xx) gets a REJECTED line instead: it is not replayed, as it would be refused again,
+ * but it stays in the journal and is reported until a later mutation of the same resource is confirmed.
+ * Line format, tab separated: PENDING id method url key base64(body) . | ACK id . | REJECTED id base64(reason) .
+ * */
+public class UploadOutbox {
+
+    public static final String POST = "POST";
+    public static final String PUT = "PUT";
+    public static final String DELETE = "DELETE";
+
+    /**
+     * One journaled request; body is the turtle sent with a POST / PUT, null for a DELETE
+     * */
+    public static class Mutation {
+        public final long id;
+        public final String method;
+        public final String url;
+        public final String key;
+        public final String body;
+
+        Mutation(long id, String method, String url, String key, String body) {
+            this.id = id;
+            this.method = method;
+            this.url = url;
+            this.key = key;
+            this.body = body;
+        }
+    }
+
+    private static UploadOutbox instance;
+
+    private final Path path;
+    //unacknowledged mutations in journal order
+    private final Map<Long, Mutation> pending = new LinkedHashMap<Long, Mutation>();
+    //mutations refused by the server and the reason given, in journal order
+    private final Map<Long, Mutation> rejected = new LinkedHashMap<Long, Mutation>();
+    private final Map<Long, String> rejectionReasons = new LinkedHashMap<Long, String>();
+    private BufferedWriter journal;
+    private long nextId = 1;
+
+    private UploadOutbox(Path path) {
+        this.path = path;
+    }
+
+    public static synchronized UploadOutbox get() {
+        if (instance == null) {
+            try {
+                instance = open(OUTBOX_FILE_NAME);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the journal at fileName and rewrites it with only its unacknowledged mutations
+     * */
+    public static UploadOutbox open(String fileName) throws IOException {
+        UploadOutbox outbox = new UploadOutbox(Paths.get(fileName));
+        if (Files.exists(outbox.path)) {
+            try (BufferedReader reader = Files.newBufferedReader(outbox.path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    outbox.readLine(line);
+                }
+            }
+        }
+        outbox.compact();
+        return outbox;
+    }
+
+    /**
+     * Journals a mutation before it is sent
+     * */
+    public synchronized Mutation append(String method, String url, String key, String body) {
+        Mutation mutation = new Mutation(nextId++, method, url, key, body);
+        pending.put(mutation.id, mutation);
+        write(pendingLine(mutation));
+        return mutation;
+    }
+
+    /**
+     * Records that the server confirmed a mutation. A PUT or DELETE also settles the earlier pending
+     * and rejected mutations of the same resource, as the resource now has the content of the later one
+     * */
+    public synchronized void ack(Mutation mutation) {
+        settle(pending, mutation);
+        settle(rejected, mutation);
+    }
+
+    /**
+     * Records that the server refused a mutation; it is no longer pending but stays in the journal (see rejected())
+     * */
+    public synchronized void reject(Mutation mutation, String reason) {
+        if (pending.remove(mutation.id) != null) {
+            rejected.put(mutation.id, mutation);
+            rejectionReasons.put(mutation.id, reason);
+            write(rejectedLine(mutation.id, reason));
+        }
+    }
+
+    private void settle(Map<Long, Mutation> mutations, Mutation mutation) {
+        Iterator<Mutation> iterator = mutations.values().iterator();
+        while (iterator.hasNext()) {
+            Mutation other = iterator.next();
+            boolean settled = other.id == mutation.id
+                    || (!mutation.method.equals(POST) && !other.method.equals(POST) && other.url.equals(mutation.url) && other.id < mutation.id);
+            if (settled) {
+                iterator.remove();
+                rejectionReasons.remove(other.id);
+                write("ACK\t" + other.id + "\t.");
+            }
+        }
+    }
+
+    /**
+     * The unacknowledged mutations in the order they were journaled
+     * */
+    public synchronized List<Mutation> pending() {
+        return new ArrayList<Mutation>(pending.values());
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * The mutations the server refused, in the order they were journaled
+     * */
+    public synchronized List<Mutation> rejected() {
+        return new ArrayList<Mutation>(rejected.values());
+    }
+
+    public synchronized String getRejectionReason(Mutation mutation) {
+        return rejectionReasons.get(mutation.id);
+    }
+
+    /**
+     * Rewrites the journal with only the unacknowledged and rejected mutations, so it does not grow across runs
+     * */
+    public synchronized void compact() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        Path tempPath = Paths.get(path + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            for (Mutation mutation : pending.values()) {
+                writer.write(pendingLine(mutation));
+                writer.newLine();
+            }
+            for (Mutation mutation : rejected.values()) {
+                writer.write(pendingLine(mutation));
+                writer.newLine();
+                writer.write(rejectedLine(mutation.id, rejectionReasons.get(mutation.id)));
+                writer.newLine();
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    private static String pendingLine(Mutation mutation) {
+        String encodedBody = mutation.body == null ? "" : Base64.getEncoder().encodeToString(mutation.body.getBytes(StandardCharsets.UTF_8));
+        return "PENDING\t" + mutation.id + "\t" + mutation.method + "\t" + mutation.url + "\t" + mutation.key + "\t" + encodedBody + "\t.";
+    }
+
+    private static String rejectedLine(long id, String reason) {
+        return "REJECTED\t" + id + "\t" + Base64.getEncoder().encodeToString(String.valueOf(reason).getBytes(StandardCharsets.UTF_8)) + "\t.";
+    }
+
+    private void readLine(String line) {
+        String[] fields = line.split("\t", -1);
+        //a line cut short by a crash has no end marker and is ignored (an unfinished PENDING was not sent yet)
+        if (fields[0].equals("PENDING") && fields.length == 7 && fields[6].equals(".")) {
+            long id = Long.parseLong(fields[1]);
+            String body = fields[5].isEmpty() ? null : new String(Base64.getDecoder().decode(fields[5]), StandardCharsets.UTF_8);
+            pending.put(id, new Mutation(id, fields[2], fields[3], fields[4], body));
+            nextId = Math.max(nextId, id + 1);
+        } else if (fields[0].equals("ACK") && fields.length == 3 && fields[2].equals(".")) {
+            long id = Long.parseLong(fields[1]);
+            pending.remove(id);
+            rejected.remove(id);
+            rejectionReasons.remove(id);
+        } else if (fields[0].equals("REJECTED") && fields.length == 4 && fields[3].equals(".")) {
+            long id = Long.parseLong(fields[1]);
+            Mutation mutation = pending.remove(id);
+            if (mutation != null) {
+                rejected.put(id, mutation);
+                rejectionReasons.put(id, new String(Base64.getDecoder().decode(fields[2]), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void write(String line) {
+        try {
+            journal.write(line);
+            journal.newLine();
+            journal.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.semanticwebproject.lib;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.Closeable;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Runs ldp requests (event POSTs, PUTs and DELETEs) on a small pool of upload threads.
+ * At most UPLOAD_CONCURRENCY requests are in flight at once: submit() blocks until a slot is free,
+ * which holds back the conversion of further events while the ldp is slow.
+ * Requests failing with a 5xx response or a timeout are retried with exponential backoff,
+ * any other failure is recorded for that event only and the remaining events are still uploaded
+ * */
+public class UploadPipeline implements Closeable {
+
+    /**
+     * UNLOCATED: the ldp created the event but answered without a Location, so its iri is unknown
+     * */
+    public enum Status { CREATED, UPDATED, DELETED, INVALID, FAILED, UNLOCATED }
+
+    /**
+     * What happened to one event: the resource it was written to, how many attempts it took, and the error if it failed
+     * */
+    public static class Outcome {
+        public final String key;
+        public final Status status;
+        public final String resourceIRI;
+        public final int attempts;
+        public final String error;
+
+        public Outcome(String key, Status status, String resourceIRI, int attempts, String error) {
+            this.key = key;
+            this.status = status;
+            this.resourceIRI = resourceIRI;
+            this.attempts = attempts;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + key + (resourceIRI != null ? " -> " + resourceIRI : "")
+                    + " (" + attempts + (attempts == 1 ? " attempt" : " attempts") + ")"
+                    + (error != null ? ": " + error : "");
+        }
+    }
+
+    /**
+     * A single ldp request, returning the iri of the resource it wrote (null for a create answered without a Location)
+     * */
+    public interface LdpRequest {
+        String execute() throws Exception;
+    }
+
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final List<Outcome> outcomes = new ArrayList<Outcome>();
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private final boolean keepReport;
+
+    public UploadPipeline() {
+        this(UPLOAD_CONCURRENCY, true);
+    }
+
+    /**
+     * keepReport: whether to keep every outcome for getReport(); a long-lived pipeline should not
+     * */
+    public UploadPipeline(int concurrency, boolean keepReport) {
+        this.concurrency = concurrency;
+        this.keepReport = keepReport;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "ldp-upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.inFlight = new Semaphore(concurrency);
+    }
+
+    /**
+     * Queues a request for the event identified by key, waiting for a free slot first.
+     * onSuccess is called on the upload thread with the outcome once the request has succeeded
+     * (not for an UNLOCATED create, which has no iri to record)
+     * */
+    public void submit(String key, Status successStatus, LdpRequest request, Consumer<Outcome> onSuccess) throws InterruptedException {
+        submitAndThen(key, successStatus, request, outcome -> {
+            if (outcome.status == successStatus && onSuccess != null) {
+                onSuccess.accept(outcome);
+            }
+        });
+    }
+
+    /**
+     * Same as submit, calling onComplete with the outcome whether the request succeeded or failed
+     * */
+    public void submitAndThen(String key, Status successStatus, LdpRequest request, Consumer<Outcome> onComplete) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            executor.execute(() -> {
+                Outcome outcome;
+                try {
+                    outcome = executeWithRetries(key, successStatus, request);
+                } catch (RuntimeException e) {
+                    outcome = new Outcome(key, Status.FAILED, null, 1, e.toString());
+                }
+                try {
+                    onComplete.accept(outcome);
+                    record(outcome);
+                } catch (RuntimeException e) {
+                    record(new Outcome(key, Status.FAILED, outcome.resourceIRI, outcome.attempts, e.toString()));
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds an outcome decided without a request, eg an event rejected by shacl validation
+     * */
+    public synchronized void record(Outcome outcome) {
+        if (keepReport) {
+            outcomes.add(outcome);
+        }
+    }
+
+    /**
+     * Waits until every submitted request has finished
+     * */
+    public void awaitAll() throws InterruptedException {
+        inFlight.acquire(concurrency);
+        inFlight.release(concurrency);
+    }
+
+    /**
+     * Waits for every submitted request, then returns the outcome of each event in completion order
+     * */
+    public List<Outcome> getReport() throws InterruptedException {
+        awaitAll();
+        synchronized (this) {
+            return new ArrayList<Outcome>(outcomes);
+        }
+    }
+
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Outcome executeWithRetries(String key, Status successStatus, LdpRequest request) {
+        long backoffMillis = UPLOAD_INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                String resourceIRI = request.execute();
+                if (resourceIRI == null && successStatus == Status.CREATED) {
+                    return new Outcome(key, Status.UNLOCATED, null, attempt, "created without a Location header, its iri is unknown");
+                }
+                return new Outcome(key, successStatus, resourceIRI, attempt, null);
+            } catch (Exception e) {
+                if (attempt >= UPLOAD_MAX_ATTEMPTS || !isRetryable(e)) {
+                    return new Outcome(key, Status.FAILED, null, attempt, rootMessage(e));
+                }
+            }
+
+            retryCount.incrementAndGet();
+            try {
+                //full jitter, so throttled requests do not all come back at the same moment
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Outcome(key, Status.FAILED, null, attempt, "interrupted while waiting to retry");
+            }
+            backoffMillis = Math.min(backoffMillis * 2, UPLOAD_MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * Whether the ldp refused the request (4xx): sending it again will be refused again.
+     * A 412 is not a refusal: the resource changed since its ETag was read, and a later attempt reads it again
+     * */
+    public static boolean isRejected(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LdpStatusException) {
+                int statusCode = ((LdpStatusException) cause).getStatusCode();
+                return statusCode >= 400 && statusCode < 500 && statusCode != 412;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Server errors and timeouts are worth retrying; anything else (4xx, invalid data) will fail the same way again
+     * */
+    public static boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LdpStatusException) {
+                return ((LdpStatusException) cause).getStatusCode() >= 500;
+            }
+            if (cause instanceof SocketTimeoutException
+                    || cause instanceof ConnectTimeoutException
+                    || cause instanceof NoHttpResponseException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String rootMessage(Throwable error) {
+        Throwable root = error;
+        while (root.getCause() != null) {
+            root = root.getCause();
+        }
+        return root.getMessage() != null ? root.getMessage() : root.toString();
+    }
+}
@@ -0,0 +1,278 @@
+package org.semanticwebproject.lib;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Streaming reader for the VEVENT subset of an ICS file, used instead of ical4j's CalendarBuilder.
+ * Unfolds continuation lines, splits off property parameters, unescapes text values and returns one
+ * VEVENT at a time, so the calendar is never held in memory as a whole.
+ * Components nested in a VEVENT (eg VALARM) and everything outside VEVENTs are skipped.
+ * Throws MalformedCalendarException on input it does not understand, so callers can fall back to ical4j,
+ * including input that does not start with BEGIN:VCALENDAR (an empty body, an html error page) or ends before
+ * END:VCALENDAR (a cut off download): running out of events therefore means the whole calendar was read
+ * */
+public class VEventLexer implements Iterator<IcsEvent>, Closeable {
+
+    public static class MalformedCalendarException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedCalendarException(String message) {
+            super(message);
+        }
+
+        public MalformedCalendarException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> TEXT_PROPERTIES = Set.of(_SUMMARY, _LOCATION, _DESCRIPTION, "COMMENT");
+    private static final String BEGIN_VEVENT = BEGIN + ":" + VEVENT;
+    private static final String END_VEVENT = END + ":" + VEVENT;
+    private static final String BEGIN_VCALENDAR = BEGIN + ":" + VCALENDAR;
+    private static final String END_VCALENDAR = END + ":" + VCALENDAR;
+
+    private final BufferedReader reader;
+    private String lookahead;
+    private int lineNumber;
+    private IcsEvent nextEvent;
+    private boolean started;
+    private boolean complete;
+
+    public VEventLexer(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, BUFFER_SIZE);
+    }
+
+    /**
+     * Opens an ICS file for streaming through a buffered file channel
+     * */
+    public static VEventLexer open(String fileName) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        return new VEventLexer(new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8), BUFFER_SIZE));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextEvent == null) {
+            try {
+                nextEvent = readEvent();
+            } catch (IOException e) {
+                throw new MalformedCalendarException("Could not read calendar at line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return nextEvent != null;
+    }
+
+    @Override
+    public IcsEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        IcsEvent event = nextEvent;
+        nextEvent = null;
+        return event;
+    }
+
+    /**
+     * Whether END:VCALENDAR was read, ie every event of the calendar has been returned
+     * */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private IcsEvent readEvent() throws IOException {
+        if (complete) {
+            return null;
+        }
+        String line;
+        while ((line = readContentLine()) != null) {
+            if (!started) {
+                //a byte order mark may precede the first line
+                line = line.startsWith("\uFEFF") ? line.substring(1) : line;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (!line.equals(BEGIN_VCALENDAR)) {
+                    throw new MalformedCalendarException("Not a calendar, expected " + BEGIN_VCALENDAR + " at line " + lineNumber);
+                }
+                started = true;
+            } else if (line.equals(BEGIN_VEVENT)) {
+                return readEventBody();
+            } else if (line.equals(END_VCALENDAR)) {
+                complete = true;
+                return null;
+            }
+        }
+        if (!started) {
+            throw new MalformedCalendarException("Empty calendar, no " + BEGIN_VCALENDAR);
+        }
+        throw new MalformedCalendarException("Calendar ends without " + END_VCALENDAR + " at line " + lineNumber);
+    }
+
+    private IcsEvent readEventBody() throws IOException {
+        List<IcsEvent.IcsProperty> properties = new ArrayList<IcsEvent.IcsProperty>();
+        int nestedComponents = 0;
+
+        String line;
+        while ((line = readContentLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith(BEGIN + ":")) {
+                nestedComponents++;
+            } else if (line.startsWith(END + ":")) {
+                if (nestedComponents == 0) {
+                    if (!line.equals(END_VEVENT)) {
+                        throw new MalformedCalendarException("Unexpected " + line + " at line " + lineNumber);
+                    }
+                    return new IcsEvent(VEVENT, properties);
+                }
+                nestedComponents--;
+            } else if (nestedComponents == 0) {
+                properties.add(parseProperty(line));
+            }
+        }
+        throw new MalformedCalendarException("Unterminated VEVENT at end of file");
+    }
+
+    /**
+     * Reads one logical content line, joining the folded continuation lines (starting with a space or tab) onto it
+     * */
+    private String readContentLine() throws IOException {
+        String line = lookahead != null ? lookahead : reader.readLine();
+        lookahead = null;
+        if (line == null) {
+            return null;
+        }
+        lineNumber++;
+
+        String next = reader.readLine();
+        if (next != null && isContinuation(next)) {
+            StringBuilder unfolded = new StringBuilder(line);
+            while (next != null && isContinuation(next)) {
+                unfolded.append(next, 1, next.length());
+                lineNumber++;
+                next = reader.readLine();
+            }
+            line = unfolded.toString();
+        }
+        lookahead = next;
+        return line;
+    }
+
+    private static boolean isContinuation(String line) {
+        return !line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t');
+    }
+
+    private IcsEvent.IcsProperty parseProperty(String line) {
+        int nameEnd = 0;
+        while (nameEnd < line.length() && line.charAt(nameEnd) != ';' && line.charAt(nameEnd) != ':') {
+            nameEnd++;
+        }
+        if (nameEnd == 0 || nameEnd == line.length()) {
+            throw new MalformedCalendarException("Invalid content line at line " + lineNumber + ": " + line);
+        }
+        String name = line.substring(0, nameEnd).toUpperCase(Locale.ROOT);
+
+        Map<String, String> parameters = Collections.emptyMap();
+        int valueStart = nameEnd + 1;
+        if (line.charAt(nameEnd) == ';') {
+            parameters = new HashMap<String, String>();
+            valueStart = scanParameters(line, nameEnd, parameters) + 1;
+        }
+
+        String value = line.substring(valueStart);
+        if (TEXT_PROPERTIES.contains(name) && value.indexOf('\\') >= 0) {
+            value = unescapeText(value);
+        }
+        return new IcsEvent.IcsProperty(name, value, parameters);
+    }
+
+    /**
+     * Parses the ;NAME=value parameters of a content line starting at index start (the first ';')
+     * */
+    public static Map<String, String> parseParameters(String line, int start) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        scanParameters(line, start, parameters);
+        return parameters;
+    }
+
+    /**
+     * Collects the parameters of a content line into parameters, returning the index of the ':' before the value
+     * */
+    private static int scanParameters(String line, int start, Map<String, String> parameters) {
+        int i = start;
+        while (i < line.length() && line.charAt(i) == ';') {
+            int nameStart = ++i;
+            while (i < line.length() && line.charAt(i) != '=') {
+                i++;
+            }
+            if (i == line.length()) {
+                throw new MalformedCalendarException("Invalid property parameter: " + line);
+            }
+            String parameterName = line.substring(nameStart, i).toUpperCase(Locale.ROOT);
+
+            int parameterValueStart = ++i;
+            boolean quoted = false;
+            while (i < line.length()) {
+                char c = line.charAt(i);
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (!quoted && (c == ';' || c == ':')) {
+                    break;
+                }
+                i++;
+            }
+            String parameterValue = line.substring(parameterValueStart, i);
+            if (parameterValue.length() >= 2 && parameterValue.startsWith("\"") && parameterValue.endsWith("\"")) {
+                parameterValue = parameterValue.substring(1, parameterValue.length() - 1);
+            }
+            parameters.put(parameterName, parameterValue);
+        }
+        if (i >= line.length() || line.charAt(i) != ':') {
+            throw new MalformedCalendarException("Invalid property parameters: " + line);
+        }
+        return i;
+    }
+
+    /**
+     * Reverses the escaping of TEXT values: \n, \N, \, \; and \\
+     * */
+    private static String unescapeText(String value) {
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                unescaped.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
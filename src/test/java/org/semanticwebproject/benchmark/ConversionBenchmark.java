@@ -0,0 +1,86 @@
+package org.semanticwebproject.benchmark;
+
+import org.apache.jena.rdf.model.Model;
+import org.semanticwebproject.Main;
+import org.semanticwebproject.lib.IcsEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Times the parallel conversion of calendar events to RDF (Main.convertEvents, batches of CONVERSION_BATCH_SIZE)
+ * at several pool sizes, on a synthetic calendar built from the bundled calendar.ics.
+ *
+ * Run from the project root, after mvn test-compile:
+ * java -cp target/classes:target/test-classes:$DEPENDENCIES org.semanticwebproject.benchmark.ConversionBenchmark [events] [threads,...]
+ * defaults: 200000 events at 1,2,4,8,16 threads
+ * */
+public class ConversionBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 2;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int eventCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        String[] parallelisms = (args.length > 1 ? args[1] : "1,2,4,8,16").split(",");
+
+        List<IcsEvent> events = SyntheticCalendar.events(eventCount);
+        List<String> resourceNames = new ArrayList<String>(eventCount);
+        Map<String, Integer> uidOccurrences = new HashMap<String, Integer>();
+        for (IcsEvent event : events) {
+            resourceNames.add(Main.eventResourceName(event, Main.eventKey(event, Main.eventContentHash(event), uidOccurrences)));
+        }
+
+        System.out.println("Converting " + eventCount + " events, " + Runtime.getRuntime().availableProcessors() + " cores available");
+        //JIT warm-up before the first measured pool size, so it does not pay for compilation
+        ForkJoinPool warmUpPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+                convertAll(events, resourceNames, warmUpPool);
+            }
+        } finally {
+            warmUpPool.shutdown();
+        }
+
+        //speedup is relative to the first pool size given (1 by default)
+        System.out.println("threads\tbest ms\tevents/s\tspeedup");
+        double baselineMillis = 0;
+        for (String parallelism : parallelisms) {
+            int threads = Integer.parseInt(parallelism.trim());
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                //best of ROUNDS, after one round starting the pool threads
+                convertAll(events, resourceNames, pool);
+                long bestNanos = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long startedAt = System.nanoTime();
+                    convertAll(events, resourceNames, pool);
+                    bestNanos = Math.min(bestNanos, System.nanoTime() - startedAt);
+                }
+                double millis = bestNanos / 1e6;
+                if (baselineMillis == 0) {
+                    baselineMillis = millis;
+                }
+                System.out.printf("%d\t%.0f\t%.0f\t%.2f%n", threads, millis, eventCount / (millis / 1000), baselineMillis / millis);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static long convertAll(List<IcsEvent> events, List<String> resourceNames, ForkJoinPool pool) throws Exception {
+        long triples = 0;
+        for (int from = 0; from < events.size(); from += CONVERSION_BATCH_SIZE) {
+            int to = Math.min(from + CONVERSION_BATCH_SIZE, events.size());
+            for (Model model : Main.convertEvents(events.subList(from, to), resourceNames.subList(from, to), pool)) {
+                triples += model.size();
+            }
+        }
+        return triples;
+    }
+}
@@ -0,0 +1,115 @@
+package org.semanticwebproject.benchmark;
+
+import org.apache.jena.datatypes.xsd.XSDDateTime;
+import org.semanticwebproject.lib.DateTimeConverter;
+import org.semanticwebproject.lib.IcsEvent;
+
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Per-call cost and allocation of the ICS date-time conversion, before (the SimpleDateFormat conversion
+ * Main.createDateTimeObject used to do, kept below as legacyConversion) and after (DateTimeConverter):
+ * - calendar: the DTSTAMP, DTSTART, DTEND, CREATED and LAST-MODIFIED values of the bundled calendar.ics,
+ *   repeated, as an ingest converts them (most of them hit the cache)
+ * - distinct: values that are all different, so DateTimeConverter misses its cache on every call
+ *
+ * Run from the project root, after mvn test-compile:
+ * java -cp target/classes:target/test-classes:$DEPENDENCIES org.semanticwebproject.benchmark.DateTimeBenchmark [calls]
+ * default: 2000000 calls
+ * */
+public class DateTimeBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final Set<String> DATE_TIME_PROPERTIES = Set.of(_DTSTAMP, _DTSTART, _DTEND, _CREATED, _LAST_MODIFIED);
+
+    private interface Conversion {
+        XSDDateTime convert(String value) throws Exception;
+    }
+
+    //sink for the results, so the conversions are not optimized away
+    private static int checksum;
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        List<String> calendarValues = new ArrayList<String>();
+        for (IcsEvent event : SyntheticCalendar.bundledEvents()) {
+            for (IcsEvent.IcsProperty property : event.getProperties()) {
+                if (DATE_TIME_PROPERTIES.contains(property.name)) {
+                    calendarValues.add(property.value);
+                }
+            }
+        }
+        String[] calendar = new String[calls];
+        String[] distinct = new String[calls];
+        DateTimeFormatter icsDateTime = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+        LocalDateTime firstMinute = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int i = 0; i < calls; i++) {
+            calendar[i] = calendarValues.get(i % calendarValues.size());
+            //one value per minute from 2020 on, no two alike
+            distinct[i] = firstMinute.plusMinutes(i).format(icsDateTime);
+        }
+
+        System.out.println(calls + " calls, " + calendarValues.size() + " date-times in calendar.ics");
+        System.out.println("conversion\tinput\tns/call\tbytes/call");
+        measure("SimpleDateFormat", "calendar", calendar, DateTimeBenchmark::legacyConversion);
+        measure("SimpleDateFormat", "distinct", distinct, DateTimeBenchmark::legacyConversion);
+        measure("DateTimeConverter", "calendar", calendar, value -> DateTimeConverter.toXSDDateTime(value, null));
+        measure("DateTimeConverter", "distinct", distinct, value -> DateTimeConverter.toXSDDateTime(value, null));
+    }
+
+    private static void measure(String name, String input, String[] values, Conversion conversion) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        //first round warms up the JIT
+        run(values, conversion);
+        long bestNanos = Long.MAX_VALUE;
+        long allocatedBytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long startedAt = System.nanoTime();
+            run(values, conversion);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - startedAt);
+            allocatedBytes = Math.min(allocatedBytes, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.printf("%s\t%s\t%.1f\t%.1f%n", name, input, (double) bestNanos / values.length, (double) allocatedBytes / values.length);
+    }
+
+    private static void run(String[] values, Conversion conversion) throws Exception {
+        for (String value : values) {
+            checksum += conversion.convert(value).getMinutes();
+        }
+    }
+
+    /**
+     * The conversion Main.createDateTimeObject did before DateTimeConverter (including its +1 hour shift)
+     * */
+    private static XSDDateTime legacyConversion(String dateTimeString) throws ParseException {
+        String year = dateTimeString.substring(0, 4);
+        String month = dateTimeString.substring(4, 6);
+        String day = dateTimeString.substring(6, 8);
+        String hour = dateTimeString.substring(9, 11);
+        Integer hourInt = Integer.parseInt(hour) + 1;
+        hour = hourInt.toString();
+        String minute = dateTimeString.substring(11, 13);
+        String second = dateTimeString.substring(13, 15);
+
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("dd-MM-yyyy;HH:mm:ss");
+
+        Date date = simpleDateFormat.parse(day + "-" + month + "-" + year + ";" + hour + ":" + minute + ":" + second);
+        java.util.Calendar calendar = java.util.Calendar.getInstance();
+        calendar.setTime(date);
+        return new XSDDateTime(calendar);
+    }
+}
@@ -0,0 +1,85 @@
+package org.semanticwebproject.benchmark;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import org.semanticwebproject.Main;
+import org.semanticwebproject.lib.IcsEvent;
+import org.semanticwebproject.lib.VEventLexer;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Compares reading a calendar with the streaming VEventLexer against ical4j's CalendarBuilder
+ * (building the Calendar, then copying its VEVENTs to IcsEvents as Main.calendarEvents does),
+ * on the bundled calendar.ics scaled up copies times. Reports the best time of ROUNDS and the bytes
+ * allocated by the reading thread.
+ *
+ * Run from the project root, after mvn test-compile:
+ * java -Xmx4g -cp target/classes:target/test-classes:$DEPENDENCIES org.semanticwebproject.benchmark.IcsParserBenchmark [copies]
+ * default: 1000 copies
+ * */
+public class IcsParserBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private interface Reader {
+        long read(Path file) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Path file = SyntheticCalendar.scaledIcsFile(copies);
+        System.out.println("Calendar: " + copies + " x calendar.ics, " + Files.size(file) / (1024 * 1024) + " MB");
+        System.out.println("reader\tevents\tbest ms\tallocated MB");
+
+        measure("VEventLexer", file, IcsParserBenchmark::readWithLexer);
+        measure("CalendarBuilder", file, IcsParserBenchmark::readWithIcal4j);
+    }
+
+    private static long readWithLexer(Path file) throws Exception {
+        long eventCount = 0;
+        try (VEventLexer lexer = VEventLexer.open(file.toString())) {
+            while (lexer.hasNext()) {
+                lexer.next();
+                eventCount++;
+            }
+        }
+        return eventCount;
+    }
+
+    private static long readWithIcal4j(Path file) throws Exception {
+        long eventCount = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            Calendar calendar = new CalendarBuilder().build(in);
+            Iterator<IcsEvent> events = Main.calendarEvents(calendar);
+            while (events.hasNext()) {
+                events.next();
+                eventCount++;
+            }
+        }
+        return eventCount;
+    }
+
+    private static void measure(String name, Path file, Reader reader) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        //first round warms up the JIT
+        long eventCount = reader.read(file);
+        long bestNanos = Long.MAX_VALUE;
+        long allocatedBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            System.gc();
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long startedAt = System.nanoTime();
+            reader.read(file);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - startedAt);
+            allocatedBytes = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        System.out.printf("%s\t%d\t%.0f\t%d%n", name, eventCount, bestNanos / 1e6, allocatedBytes / (1024 * 1024));
+    }
+}
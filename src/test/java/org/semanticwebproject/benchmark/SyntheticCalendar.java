@@ -0,0 +1,82 @@
+package org.semanticwebproject.benchmark;
+
+import org.semanticwebproject.lib.IcsEvent;
+import org.semanticwebproject.lib.VEventLexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.semanticwebproject.lib.Constants.*;
+
+/**
+ * Large calendars for the benchmarks, built from the events of the bundled calendar.ics:
+ * the events are repeated with a copy number appended to their UID, so every event stays distinct
+ * */
+public class SyntheticCalendar {
+
+    /**
+     * The events of the bundled calendar.ics
+     * */
+    public static List<IcsEvent> bundledEvents() throws IOException {
+        List<IcsEvent> events = new ArrayList<IcsEvent>();
+        try (VEventLexer lexer = VEventLexer.open(CALENDAR_FILE_NAME)) {
+            lexer.forEachRemaining(events::add);
+        }
+        return events;
+    }
+
+    /**
+     * eventCount events, the bundled ones repeated with UIDs made unique
+     * */
+    public static List<IcsEvent> events(int eventCount) throws IOException {
+        List<IcsEvent> templates = bundledEvents();
+        List<IcsEvent> events = new ArrayList<IcsEvent>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            IcsEvent template = templates.get(i % templates.size());
+            int copy = i / templates.size();
+            List<IcsEvent.IcsProperty> properties = new ArrayList<IcsEvent.IcsProperty>(template.getProperties().size());
+            for (IcsEvent.IcsProperty property : template.getProperties()) {
+                properties.add(property.name.equals(_UID)
+                        ? new IcsEvent.IcsProperty(_UID, property.value + "-" + copy, property.parameters)
+                        : property);
+            }
+            events.add(new IcsEvent(template.getName(), properties));
+        }
+        return events;
+    }
+
+    /**
+     * Writes the bundled calendar.ics with its VEVENTs repeated copies times (UIDs made unique) to a temp file
+     * */
+    public static Path scaledIcsFile(int copies) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(CALENDAR_FILE_NAME), StandardCharsets.UTF_8);
+        int firstEvent = lines.indexOf(BEGIN + ":" + VEVENT);
+        int lastEventEnd = lines.lastIndexOf(END + ":" + VEVENT);
+
+        Path file = Files.createTempFile("calendar-x" + copies + "-", ".ics");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String line : lines.subList(0, firstEvent)) {
+                writer.write(line);
+                writer.write("\r\n");
+            }
+            for (int copy = 0; copy < copies; copy++) {
+                for (String line : lines.subList(firstEvent, lastEventEnd + 1)) {
+                    writer.write(line.startsWith(_UID + ":") ? line + "-" + copy : line);
+                    writer.write("\r\n");
+                }
+            }
+            for (String line : lines.subList(lastEventEnd + 1, lines.size())) {
+                writer.write(line);
+                writer.write("\r\n");
+            }
+        }
+        return file;
+    }
+}
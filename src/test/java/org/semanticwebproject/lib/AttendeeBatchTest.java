@@ -0,0 +1,74 @@
+package org.semanticwebproject.lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttendeeBatchTest {
+
+    private static final String EVENT = "https://territoire.emse.fr/ldp/event/";
+    private static final String ALICE = "https://territoire.emse.fr/ldp/alice/";
+    private static final String BOB = "https://territoire.emse.fr/ldp/bob/";
+
+    @Test
+    void malformedFirstLineIsInvalidAndTheRestIsRead() throws Exception {
+        AttendeeBatch batch = AttendeeBatch.read(new StringReader(String.join("\n",
+                "{\"eventURI\": \"" + EVENT + "\", \"attendeeURI\": ",
+                pair(EVENT, ALICE),
+                pair(EVENT, BOB))));
+
+        List<AttendeeBatch.Pair> pairs = batch.getPairs();
+        assertEquals(3, pairs.size());
+        assertEquals(AttendeeBatch.INVALID, pairs.get(0).getStatus());
+        assertEquals(Map.of(EVENT, Set.of(ALICE, BOB)), batch.getAttendeesByEvent());
+    }
+
+    @Test
+    void firstLineWithoutEventIsInvalidAndTheRestIsRead() throws Exception {
+        AttendeeBatch batch = AttendeeBatch.read(new StringReader(String.join("\n",
+                "{\"attendeeURI\": \"" + ALICE + "\"}",
+                pair(EVENT, BOB))));
+
+        assertEquals(AttendeeBatch.INVALID, batch.getPairs().get(0).getStatus());
+        assertEquals(Map.of(EVENT, Set.of(BOB)), batch.getAttendeesByEvent());
+    }
+
+    @Test
+    void readsPrettyPrintedMatrix() throws Exception {
+        AttendeeBatch batch = AttendeeBatch.read(new StringReader(String.join("\n",
+                "{",
+                "  \"eventURIs\": [\"" + EVENT + "\"],",
+                "  \"attendeeURIs\": [\"" + ALICE + "\", \"" + BOB + "\"]",
+                "}")));
+
+        assertEquals(2, batch.getPairs().size());
+        assertEquals(Map.of(EVENT, Set.of(ALICE, BOB)), batch.getAttendeesByEvent());
+    }
+
+    @Test
+    void contentTypeDecidesTheFormat() throws Exception {
+        String matrix = "{\"attendeeURIs\": [\"" + ALICE + "\"], \"eventURIs\": [\"" + EVENT + "\"]}";
+        assertEquals(Map.of(EVENT, Set.of(ALICE)), AttendeeBatch.read(new StringReader(matrix), "application/json; charset=utf-8").getAttendeesByEvent());
+
+        AttendeeBatch asLines = AttendeeBatch.read(new StringReader(matrix), "application/x-ndjson");
+        assertEquals(AttendeeBatch.INVALID, asLines.getPairs().get(0).getStatus());
+        assertTrue(asLines.getAttendeesByEvent().isEmpty());
+    }
+
+    @Test
+    void duplicatePairIsRecordedOnce() throws Exception {
+        AttendeeBatch batch = AttendeeBatch.read(new StringReader(pair(EVENT, ALICE) + "\n\n" + pair(EVENT, ALICE)));
+
+        assertEquals(AttendeeBatch.DUPLICATE, batch.getPairs().get(1).getStatus());
+        assertEquals(Map.of(EVENT, Set.of(ALICE)), batch.getAttendeesByEvent());
+    }
+
+    private static String pair(String eventURI, String attendeeURI) {
+        return "{\"eventURI\": \"" + eventURI + "\", \"attendeeURI\": \"" + attendeeURI + "\"}";
+    }
+}
@@ -0,0 +1,133 @@
+package org.semanticwebproject.lib;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalendarDownloadTest {
+
+    private static final String CALENDAR = String.join("\r\n",
+            "BEGIN:VCALENDAR",
+            "VERSION:2.0",
+            "BEGIN:VEVENT",
+            "UID:ADE603230",
+            "SUMMARY:Semantic Web",
+            "END:VEVENT",
+            "END:VCALENDAR",
+            "");
+    private static final String ETAG = "\"calendar-v1\"";
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private final List<Integer> statuses = new ArrayList<Integer>();
+    private String calendarFileName;
+    private String validatorsFileName;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        calendarFileName = Constants.CALENDAR_FILE_NAME;
+        validatorsFileName = Constants.CALENDAR_VALIDATORS_FILE_NAME;
+        Constants.CALENDAR_FILE_NAME = directory.resolve("calendar.ics").toString();
+        Constants.CALENDAR_VALIDATORS_FILE_NAME = directory.resolve("validators.properties").toString();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/calendar.ics", exchange -> {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                statuses.add(304);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = CALENDAR.getBytes(StandardCharsets.UTF_8);
+                statuses.add(200);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        Constants.CALENDAR_FILE_NAME = calendarFileName;
+        Constants.CALENDAR_VALIDATORS_FILE_NAME = validatorsFileName;
+    }
+
+    @Test
+    void secondDownloadOfUnchangedCalendarIsNotModified() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/calendar.ics";
+
+        List<IcsEvent> events = new ArrayList<IcsEvent>();
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            assertFalse(download.isNotModified());
+            //the lexer closes its reader, and with it the body, before the commit
+            try (VEventLexer lexer = new VEventLexer(new InputStreamReader(download.body(), StandardCharsets.UTF_8))) {
+                lexer.forEachRemaining(events::add);
+            }
+            download.commit();
+            download.storeValidators();
+        }
+        assertEquals(1, events.size());
+        assertEquals(CALENDAR, Files.readString(Path.of(Constants.CALENDAR_FILE_NAME)));
+        assertFalse(Files.exists(Path.of(Constants.CALENDAR_FILE_NAME + ".part")));
+
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            assertTrue(download.isNotModified());
+        }
+        assertEquals(List.of(200, 304), statuses);
+    }
+
+    @Test
+    void calendarWhoseIngestFailedIsDownloadedAgain() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/calendar.ics";
+
+        //committed, but the ingest failed so the validators are not stored
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            download.commit();
+        }
+        assertEquals(CALENDAR, Files.readString(Path.of(Constants.CALENDAR_FILE_NAME)));
+
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            assertFalse(download.isNotModified());
+            download.commit();
+            download.storeValidators();
+        }
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            assertTrue(download.isNotModified());
+        }
+        assertEquals(List.of(200, 200, 304), statuses);
+    }
+
+    @Test
+    void uncommittedDownloadLeavesNoFile() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/calendar.ics";
+
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            download.body().read();
+        }
+        assertFalse(Files.exists(Path.of(Constants.CALENDAR_FILE_NAME)));
+        assertFalse(Files.exists(Path.of(Constants.CALENDAR_FILE_NAME + ".part")));
+
+        try (CalendarDownload download = CalendarDownload.open(url)) {
+            assertFalse(download.isNotModified());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.semanticwebproject.lib;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventIntervalIndexTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void scanReplacesIngestedEventsButKeepsChangesMadeDuringIt() throws Exception {
+        EventIntervalIndex index = EventIntervalIndex.load(directory.resolve("index.tsv").toString());
+        index.put("https://territoire.emse.fr/ldp/ingested/", 0, HOUR);
+        index.put("https://territoire.emse.fr/ldp/deleted-elsewhere/", 0, HOUR);
+        assertFalse(index.isScannedWithin(HOUR));
+
+        assertTrue(index.rebuild(HOUR, intervals -> {
+            intervals.put("https://territoire.emse.fr/ldp/ingested/", new long[]{0, HOUR});
+            intervals.put("https://territoire.emse.fr/ldp/written-elsewhere/", new long[]{0, HOUR});
+            intervals.put("https://territoire.emse.fr/ldp/deleted-during-scan/", new long[]{0, HOUR});
+            //ingested while the scan runs
+            index.put("https://territoire.emse.fr/ldp/ingested-during-scan/", 0, HOUR);
+            index.remove("https://territoire.emse.fr/ldp/deleted-during-scan/");
+        }));
+
+        assertTrue(index.isScannedWithin(HOUR));
+        assertEquals(List.of("https://territoire.emse.fr/ldp/ingested-during-scan/",
+                        "https://territoire.emse.fr/ldp/ingested/",
+                        "https://territoire.emse.fr/ldp/written-elsewhere/"),
+                index.overlapping(0, HOUR).stream().sorted().collect(Collectors.toList()));
+        //a recent scan is not run again
+        assertFalse(index.rebuild(HOUR, intervals -> fail("scanned twice")));
+    }
+
+    @Test
+    void failedScanLeavesIndexUnscanned() throws Exception {
+        EventIntervalIndex index = EventIntervalIndex.load(directory.resolve("index.tsv").toString());
+        index.put("https://territoire.emse.fr/ldp/ingested/", 0, HOUR);
+
+        assertThrows(IOException.class, () -> index.rebuild(HOUR, intervals -> {
+            intervals.put("https://territoire.emse.fr/ldp/written-elsewhere/", new long[]{0, HOUR});
+            throw new IOException("HTTP 503 Service Unavailable");
+        }));
+
+        assertFalse(index.isScannedWithin(HOUR));
+        assertEquals(List.of("https://territoire.emse.fr/ldp/ingested/"), index.overlapping(0, HOUR));
+    }
+}
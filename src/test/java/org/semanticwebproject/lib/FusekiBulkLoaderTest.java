@@ -0,0 +1,85 @@
+package org.semanticwebproject.lib;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FusekiBulkLoaderTest {
+
+    private static final String GRAPH = "https://mines-saint-etienne.cps2.com/mycalendar";
+
+    @Test
+    void failedGraphStoreRequestIsAddedToTheWriterError() throws Exception {
+        //nothing listens there, so the request fails and closes the pipe under the writer
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        String serviceUrl = "http://127.0.0.1:" + port + "/calendar/";
+
+        IOException error = assertThrows(IOException.class, () -> {
+            try (FusekiBulkLoader loader = FusekiBulkLoader.open(serviceUrl, GRAPH, FusekiBulkLoader.Mode.GSP, true)) {
+                //more than the buffer and the pipe hold
+                for (int i = 0; i < 20; i++) {
+                    loader.add(events(i, 1000));
+                }
+                loader.finish();
+            }
+        });
+        assertTrue(Arrays.stream(error.getSuppressed()).anyMatch(suppressed -> suppressed instanceof ConnectException),
+                () -> error + " does not carry the failure of the request: " + Arrays.toString(error.getSuppressed()));
+    }
+
+    @Test
+    void abortedLoadSendsNoCompleteRequest() throws Exception {
+        //records the loads whose body arrived whole
+        List<Integer> completeBodies = new CopyOnWriteArrayList<Integer>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/calendar/data", exchange -> {
+            try {
+                completeBodies.add(exchange.getRequestBody().readAllBytes().length);
+                exchange.sendResponseHeaders(204, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String serviceUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/calendar/";
+            //a conversion failing midway: the loader is closed without finish()
+            assertThrows(IllegalStateException.class, () -> {
+                try (FusekiBulkLoader loader = FusekiBulkLoader.open(serviceUrl, GRAPH, FusekiBulkLoader.Mode.GSP, true)) {
+                    for (int i = 0; i < 5; i++) {
+                        loader.add(events(i, 1000));
+                    }
+                    throw new IllegalStateException("conversion failed");
+                }
+            });
+            Thread.sleep(500);
+            assertEquals(List.of(), completeBodies);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static Model events(int batch, int count) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < count; i++) {
+            Resource event = model.createResource("https://territoire.emse.fr/ldp/event-" + batch + "-" + i + "/");
+            event.addProperty(model.createProperty("https://schema.org/name"), "Event " + i + " of batch " + batch + " with a long enough name");
+        }
+        return model;
+    }
+}
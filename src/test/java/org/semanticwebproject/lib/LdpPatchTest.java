@@ -0,0 +1,66 @@
+package org.semanticwebproject.lib;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LdpPatchTest {
+
+    private HttpServer server;
+    //method and If-Match of each request received, eg "PATCH \"v1\""
+    private final List<String> requests = new CopyOnWriteArrayList<String>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ldp/", exchange -> {
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("If-Match"));
+            exchange.getRequestBody().readAllBytes();
+            if (exchange.getRequestURI().getPath().startsWith("/ldp/tagged")) {
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            }
+            exchange.sendResponseHeaders(exchange.getRequestMethod().equals("PATCH") ? 204 : 200, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void fetchesTheETagBeforeTheFirstPatch() throws Exception {
+        LdpPatch.insert(resourceIRI("tagged-event"), attendee());
+        assertEquals(List.of("HEAD null", "PATCH \"v1\""), requests);
+    }
+
+    @Test
+    void refusesToPatchWithoutETag() {
+        IOException error = assertThrows(IOException.class, () -> LdpPatch.insert(resourceIRI("untagged-event"), attendee()));
+        assertTrue(error.getMessage().contains("If-Match"), error::getMessage);
+        assertEquals(List.of("HEAD null"), requests);
+    }
+
+    private String resourceIRI(String name) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/ldp/" + name + "/";
+    }
+
+    private static Model attendee() {
+        Model model = ModelFactory.createDefaultModel();
+        model.createResource("https://territoire.emse.fr/ldp/event/")
+                .addProperty(model.createProperty("https://schema.org/attendee"), model.createResource("https://territoire.emse.fr/ldp/person/"));
+        return model;
+    }
+}
@@ -0,0 +1,83 @@
+package org.semanticwebproject.lib;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResourceMutatorTest {
+
+    private static final String EVENT = "https://territoire.emse.fr/ldp/event/";
+    private static final Property ATTENDEE = ModelFactory.createDefaultModel().createProperty("https://schema.org/attendee");
+
+    @Test
+    void concurrentInsertsIntoOneResourceAllLand() throws Exception {
+        Model stored = ModelFactory.createDefaultModel();
+        AtomicInteger writesInProgress = new AtomicInteger();
+        AtomicInteger overlappingWrites = new AtomicInteger();
+        AtomicInteger writeCount = new AtomicInteger();
+        ResourceMutator mutator = new ResourceMutator((resourceIRI, additions) -> {
+            if (writesInProgress.incrementAndGet() > 1) {
+                overlappingWrites.incrementAndGet();
+            }
+            try {
+                //slow enough for the other callers to queue behind the write
+                Thread.sleep(20);
+                synchronized (stored) {
+                    stored.add(additions);
+                }
+                writeCount.incrementAndGet();
+            } finally {
+                writesInProgress.decrementAndGet();
+            }
+        });
+
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<?>> inserts = new ArrayList<Future<?>>();
+            for (int i = 0; i < callers; i++) {
+                Model additions = attendee("https://territoire.emse.fr/ldp/person-" + i + "/");
+                inserts.add(executor.submit(() -> {
+                    mutator.insert(EVENT, additions);
+                    return null;
+                }));
+            }
+            for (Future<?> insert : inserts) {
+                insert.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < callers; i++) {
+            assertTrue(stored.containsAll(attendee("https://territoire.emse.fr/ldp/person-" + i + "/")), "attendee " + i + " was lost");
+        }
+        assertEquals(0, overlappingWrites.get());
+        assertTrue(writeCount.get() <= callers);
+    }
+
+    @Test
+    void failedWriteIsReportedToItsCaller() {
+        ResourceMutator mutator = new ResourceMutator((resourceIRI, additions) -> {
+            throw new LdpStatusException(resourceIRI, 409, "Conflict");
+        });
+        LdpStatusException error = assertThrows(LdpStatusException.class, () -> mutator.insert(EVENT, attendee("https://territoire.emse.fr/ldp/person/")));
+        assertEquals(409, error.getStatusCode());
+    }
+
+    private static Model attendee(String personIRI) {
+        Model model = ModelFactory.createDefaultModel();
+        model.createResource(EVENT).addProperty(ATTENDEE, model.createResource(personIRI));
+        return model;
+    }
+}
@@ -0,0 +1,53 @@
+package org.semanticwebproject.lib;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadOutboxTest {
+
+    private static final String EVENT_URL = "https://territoire.emse.fr/ldp/event-1/";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rejectedMutationIsKeptButNotPendingAcrossRuns() throws Exception {
+        String fileName = directory.resolve("outbox.log").toString();
+        UploadOutbox outbox = UploadOutbox.open(fileName);
+        UploadOutbox.Mutation refused = outbox.append(UploadOutbox.PUT, EVENT_URL, "event-1", "<a> <b> <c> .");
+        UploadOutbox.Mutation unsent = outbox.append(UploadOutbox.DELETE, "https://territoire.emse.fr/ldp/event-2/", "event-2", null);
+        outbox.reject(refused, "HTTP 403 Forbidden from " + EVENT_URL);
+
+        UploadOutbox reopened = UploadOutbox.open(fileName);
+        assertEquals(List.of(unsent.id), ids(reopened.pending()));
+        assertEquals(List.of(refused.id), ids(reopened.rejected()));
+        assertEquals("HTTP 403 Forbidden from " + EVENT_URL, reopened.getRejectionReason(reopened.rejected().get(0)));
+        assertEquals("<a> <b> <c> .", reopened.rejected().get(0).body);
+    }
+
+    @Test
+    void confirmedLaterMutationSettlesRejectedOne() throws Exception {
+        String fileName = directory.resolve("outbox.log").toString();
+        UploadOutbox outbox = UploadOutbox.open(fileName);
+        UploadOutbox.Mutation refused = outbox.append(UploadOutbox.PUT, EVENT_URL, "event-1", "<a> <b> <c> .");
+        outbox.reject(refused, "HTTP 409 Conflict from " + EVENT_URL);
+        UploadOutbox.Mutation resent = outbox.append(UploadOutbox.PUT, EVENT_URL, "event-1", "<a> <b> <d> .");
+        outbox.ack(resent);
+
+        assertTrue(outbox.rejected().isEmpty());
+        assertTrue(outbox.pending().isEmpty());
+        UploadOutbox reopened = UploadOutbox.open(fileName);
+        assertTrue(reopened.rejected().isEmpty());
+        assertTrue(reopened.pending().isEmpty());
+    }
+
+    private static List<Long> ids(List<UploadOutbox.Mutation> mutations) {
+        return mutations.stream().map(mutation -> mutation.id).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,31 @@
+package org.semanticwebproject.lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadPipelineTest {
+
+    @Test
+    void createWithoutLocationIsUnlocatedNotFailed() throws Exception {
+        AtomicInteger successCount = new AtomicInteger();
+        List<UploadPipeline.Outcome> report;
+        try (UploadPipeline pipeline = new UploadPipeline(2, true)) {
+            pipeline.submit("event-1", UploadPipeline.Status.CREATED, () -> null, outcome -> successCount.incrementAndGet());
+            pipeline.submit("event-2", UploadPipeline.Status.CREATED, () -> "https://territoire.emse.fr/ldp/event-2/",
+                    outcome -> successCount.incrementAndGet());
+            report = pipeline.getReport();
+        }
+
+        UploadPipeline.Outcome unlocated = report.stream().filter(outcome -> outcome.key.equals("event-1")).findFirst().orElseThrow();
+        assertEquals(UploadPipeline.Status.UNLOCATED, unlocated.status);
+        assertEquals(1, unlocated.attempts);
+        UploadPipeline.Outcome created = report.stream().filter(outcome -> outcome.key.equals("event-2")).findFirst().orElseThrow();
+        assertEquals(UploadPipeline.Status.CREATED, created.status);
+        //only the event with an iri can be recorded
+        assertEquals(1, successCount.get());
+    }
+}
@@ -0,0 +1,134 @@
+package org.semanticwebproject.lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.semanticwebproject.lib.Constants.*;
+
+class VEventLexerTest {
+
+    private static final String EVENT = String.join("\n",
+            "BEGIN:VCALENDAR",
+            "VERSION:2.0",
+            "BEGIN:VEVENT",
+            "DTSTART;TZID=Europe/Paris:20221215T094500",
+            "DTEND:20221215T111500Z",
+            "SUMMARY:CM/TD Overview of Research\\, development and innovation activitie",
+            " s / Professional insertion",
+            "LOCATION:EMSE S129\\,EMSE Espace Fauriel S1.32",
+            "DESCRIPTION:\\n\\nM2 CPS2\\nBOISSIER OLIVIER\\; BALBO FLAVIEN\\nNARDIN GUSTAVO\\",
+            "\tn(Exporté le:13/01/2023 18:06)\\n",
+            "UID:ADE603230",
+            "BEGIN:VALARM",
+            "TRIGGER:-PT15M",
+            "END:VALARM",
+            "END:VEVENT",
+            "END:VCALENDAR",
+            "");
+
+    @Test
+    void unfoldsContinuationLines() {
+        IcsEvent event = readAll(EVENT).get(0);
+        assertEquals("CM/TD Overview of Research, development and innovation activities / Professional insertion", event.getValue(_SUMMARY));
+        assertEquals("\n\nM2 CPS2\nBOISSIER OLIVIER; BALBO FLAVIEN\nNARDIN GUSTAVO\n(Exporté le:13/01/2023 18:06)\n", event.getValue(_DESCRIPTION));
+    }
+
+    @Test
+    void unescapesCommasAndSemicolonsInTextValues() {
+        IcsEvent event = readAll(EVENT).get(0);
+        assertEquals("EMSE S129,EMSE Espace Fauriel S1.32", event.getValue(_LOCATION));
+        assertTrue(event.getValue(_DESCRIPTION).contains("OLIVIER; BALBO"));
+    }
+
+    @Test
+    void splitsOffParametersAndSkipsNestedComponents() {
+        IcsEvent event = readAll(EVENT).get(0);
+        assertEquals("20221215T094500", event.getValue(_DTSTART));
+        assertEquals("Europe/Paris", event.getProperty(_DTSTART).getParameter("TZID"));
+        assertNull(event.getProperty("TRIGGER"));
+        assertEquals(6, event.getProperties().size());
+    }
+
+    @Test
+    void readsCrlfAndLfLineEndingsTheSame() {
+        List<IcsEvent> lf = readAll(EVENT);
+        List<IcsEvent> crlf = readAll(EVENT.replace("\n", "\r\n"));
+        assertEquals(lf.size(), crlf.size());
+        for (int i = 0; i < lf.get(0).getProperties().size(); i++) {
+            IcsEvent.IcsProperty expected = lf.get(0).getProperties().get(i);
+            IcsEvent.IcsProperty actual = crlf.get(0).getProperties().get(i);
+            assertEquals(expected.name, actual.name);
+            assertEquals(expected.value, actual.value);
+            assertEquals(expected.parameters, actual.parameters);
+        }
+    }
+
+    @Test
+    void returnsEventsOneAtATime() {
+        String twoEvents = EVENT.replace("END:VCALENDAR\n", "BEGIN:VEVENT\nUID:second\nEND:VEVENT\nEND:VCALENDAR\n");
+        VEventLexer lexer = new VEventLexer(new StringReader(twoEvents));
+        assertEquals("ADE603230", lexer.next().getValue(_UID));
+        assertEquals("second", lexer.next().getValue(_UID));
+        assertFalse(lexer.hasNext());
+        assertTrue(lexer.isComplete());
+    }
+
+    @Test
+    void rejectsEmptyBody() {
+        assertThrows(VEventLexer.MalformedCalendarException.class, new VEventLexer(new StringReader(""))::hasNext);
+        assertThrows(VEventLexer.MalformedCalendarException.class, new VEventLexer(new StringReader("\r\n\r\n"))::hasNext);
+    }
+
+    @Test
+    void rejectsHtmlBody() {
+        String html = "<!DOCTYPE html>\n<html><body>Service unavailable</body></html>\n";
+        assertThrows(VEventLexer.MalformedCalendarException.class, new VEventLexer(new StringReader(html))::hasNext);
+    }
+
+    @Test
+    void rejectsCalendarTruncatedAtEventBoundary() {
+        String truncated = EVENT.substring(0, EVENT.indexOf("END:VCALENDAR"));
+        VEventLexer lexer = new VEventLexer(new StringReader(truncated));
+        assertEquals("ADE603230", lexer.next().getValue(_UID));
+        assertThrows(VEventLexer.MalformedCalendarException.class, lexer::hasNext);
+        assertFalse(lexer.isComplete());
+    }
+
+    @Test
+    void acceptsByteOrderMarkAndCalendarWithoutEvents() {
+        VEventLexer lexer = new VEventLexer(new StringReader("\uFEFFBEGIN:VCALENDAR\r\nVERSION:2.0\r\nEND:VCALENDAR\r\n"));
+        assertFalse(lexer.hasNext());
+        assertTrue(lexer.isComplete());
+    }
+
+    @Test
+    void rejectsTruncatedEvent() {
+        String truncated = EVENT.substring(0, EVENT.indexOf("UID:"));
+        VEventLexer lexer = new VEventLexer(new StringReader(truncated));
+        assertThrows(VEventLexer.MalformedCalendarException.class, lexer::hasNext);
+    }
+
+    @Test
+    void rejectsTruncatedContentLine() {
+        String truncated = EVENT.substring(0, EVENT.indexOf("UID:") + 3) + "\n";
+        VEventLexer lexer = new VEventLexer(new StringReader(truncated));
+        assertThrows(VEventLexer.MalformedCalendarException.class, lexer::hasNext);
+    }
+
+    @Test
+    void rejectsMismatchedEnd() {
+        String mismatched = EVENT.replace("END:VEVENT", "END:VTODO");
+        VEventLexer lexer = new VEventLexer(new StringReader(mismatched));
+        assertThrows(VEventLexer.MalformedCalendarException.class, lexer::hasNext);
+    }
+
+    private static List<IcsEvent> readAll(String ics) {
+        List<IcsEvent> events = new ArrayList<IcsEvent>();
+        new VEventLexer(new StringReader(ics)).forEachRemaining(events::add);
+        return events;
+    }
+}